@@ -0,0 +1,67 @@
+package io.harborl.solid.toys.batch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The overhead of {@linkplain Gather#ruduce(Map, boolean)} by the fan-out, the
+ * actions return at once, so it is all the hand-off and the collecting.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GatherBenchmark {
+
+  @Param({ "1", "4", "16" })
+  int fanOut;
+
+  Map<Context, Action> actions;
+
+  @Setup
+  public void setUp() {
+    actions = new HashMap<Context, Action>();
+    for (int i = 0; i < fanOut; i++) {
+      final String path = "/action/" + i;
+      actions.put(new Context.Builder().path(path).build(), new Action() {
+        @Override public String apply(Context context) {
+          return "{}";
+        }
+
+        @Override public String path() {
+          return path;
+        }
+      });
+    }
+  }
+
+  /** The pool threads are not daemons, they would keep the forked VM alive. */
+  @TearDown
+  public void tearDown() {
+    Gather.INSTANCE.evictAll();
+  }
+
+  @Benchmark
+  public Map<String, String> ruduce() {
+    return Gather.INSTANCE.ruduce(actions, true);
+  }
+}
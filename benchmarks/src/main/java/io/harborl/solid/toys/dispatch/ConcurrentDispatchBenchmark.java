@@ -0,0 +1,97 @@
+package io.harborl.solid.toys.dispatch;
+
+import io.harborl.solid.toys.filter.Filter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The throughput and the end to end latency of a {@linkplain ConcurrentDispatch},
+ * by the number of subscribers and the max concurrent level.
+ * <p>
+ * The throughput is the rate of {@code dispatch} calls, a busy pool makes the
+ * caller run the delivery, so it is bounded by the deliveries. The latency is 
+ * the time from {@code dispatch} till all the subscribers are notified.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentDispatchBenchmark {
+
+  @Param({ "1", "8", "32" })
+  int subscribers;
+
+  @Param({ "1", "4" })
+  int level;
+
+  ConcurrentDispatch<Probe> dispatch;
+  Probe probe;
+
+  @Setup
+  public void setUp() {
+    dispatch = ConcurrentDispatch.valueOf(level);
+    Filter<Probe> all = new Filter<Probe>() {
+      @Override public boolean test(Probe t) {
+        return true;
+      }
+    };
+    for (int i = 0; i < subscribers; i++) {
+      dispatch.register(new Subscriber<Probe>() {
+        @Override public void notify(Probe t) {
+          t.pending.decrementAndGet();
+        }
+      }, all, "subscriber-" + i);
+    }
+    probe = new Probe();
+  }
+
+  @TearDown
+  public void tearDown() {
+    dispatch.dismiss();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void dispatch() {
+    dispatch.dispatch(probe);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public int roundTrip() {
+    Probe probe = new Probe();
+    probe.pending.set(subscribers);
+    dispatch.dispatch(probe);
+    int spins = 0;
+    while (probe.pending.get() > 0) {
+      // Yields, the delivery may need the only core.
+      Thread.yield();
+      spins++;
+    }
+    return spins;
+  }
+
+  /** A message counting the subscribers not notified yet. */
+  static final class Probe {
+    final AtomicInteger pending = new AtomicInteger();
+  }
+}
@@ -0,0 +1,98 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost per term of a {@linkplain Condition} chain, by its depth and operator mix,
+ * evaluated as it is, adaptively reordered and by the batch.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConditionBenchmark {
+
+  static final int TERMS = 1024;
+
+  @Param({ "2", "8", "32" })
+  int depth;
+
+  /** and: all clauses joined by and, or: by or, mixed: runs of and / or alternating. */
+  @Param({ "and", "or", "mixed" })
+  String mix;
+
+  Integer[] terms;
+  Condition<Integer> condition;
+  Filter<Integer> adaptive;
+  long[] selection;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    terms = new Integer[TERMS];
+    for (int i = 0; i < TERMS; i++) {
+      terms[i] = random.nextInt(1 << 20);
+    }
+
+    condition = Condition.newInstance(clause(0));
+    for (int i = 1; i < depth; i++) {
+      boolean or = "or".equals(mix) || ("mixed".equals(mix) && (i / 2) % 2 == 1);
+      condition = or ? condition.or(clause(i)) : condition.and(clause(i));
+    }
+    adaptive = condition.adaptive();
+    selection = new long[(TERMS + 63) >>> 6];
+  }
+
+  /** A clause passing about 7 / 8 of the terms, they differ in the tested bits. */
+  private static Filter<Integer> clause(final int index) {
+    final int shift = index % 17;
+    return new Filter<Integer>() {
+      @Override public boolean test(Integer t) {
+        return ((t >>> shift) & 7) != 0;
+      }
+    };
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TERMS)
+  public void chain(Blackhole bh) {
+    for (Integer t : terms) {
+      bh.consume(condition.test(t));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TERMS)
+  public void adaptive(Blackhole bh) {
+    for (Integer t : terms) {
+      bh.consume(adaptive.test(t));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TERMS)
+  public long[] batch() {
+    condition.testBatch(terms, 0, TERMS, selection);
+    return selection;
+  }
+}
@@ -0,0 +1,74 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of {@linkplain Stream#get()} by the source size and the filter selectivity,
+ * against the primitive {@linkplain IntStream#get()} over the same values.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamBenchmark {
+
+  static final int RANGE = 10000;
+
+  @Param({ "1000", "100000" })
+  int size;
+
+  /** The share of terms passing the filter. */
+  @Param({ "0.01", "0.5", "0.99" })
+  double selectivity;
+
+  Stream<Integer> stream;
+  IntStream ints;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Integer[] boxed = new Integer[size];
+    int[] values = new int[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = random.nextInt(RANGE);
+      boxed[i] = values[i];
+    }
+
+    final int threshold = (int) (RANGE * selectivity);
+    stream = Stream.wrap(boxed).filter(new Filter<Integer>() {
+      @Override public boolean test(Integer t) {
+        return t < threshold;
+      }
+    });
+    ints = IntStream.wrap(values).filter(Columns.lessThan(threshold));
+  }
+
+  @Benchmark
+  public List<Integer> get() {
+    return stream.get();
+  }
+
+  @Benchmark
+  public int[] getInts() {
+    return ints.get();
+  }
+}
@@ -0,0 +1,69 @@
+package io.harborl.solid.toys.profiling;
+
+import io.harborl.solid.toys.batch.Action;
+import io.harborl.solid.toys.batch.Context;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of a call watched by {@linkplain TimeWatcher}, through the dynamic 
+ * proxy and through the {@linkplain Action} wrapper, against the direct call.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeWatcherBenchmark {
+
+  Action direct;
+  Action proxied;
+  Action wrapped;
+  Context context;
+
+  @Setup
+  public void setUp() {
+    direct = new Action() {
+      @Override public String apply(Context context) {
+        return "{}";
+      }
+
+      @Override public String path() {
+        return "/benchmark";
+      }
+    };
+    proxied = TimeWatcher.with(direct);
+    wrapped = TimeWatcher.watch(direct);
+    context = new Context.Builder().path("/benchmark").build();
+  }
+
+  @Benchmark
+  public String direct() {
+    return direct.apply(context);
+  }
+
+  @Benchmark
+  public String proxied() {
+    return proxied.apply(context);
+  }
+
+  @Benchmark
+  public String wrapped() {
+    return wrapped.apply(context);
+  }
+}
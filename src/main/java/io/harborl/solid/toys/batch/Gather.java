@@ -1,5 +1,7 @@
 package io.harborl.solid.toys.batch;
 
+import io.harborl.solid.toys.tracing.Tracer;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -85,47 +87,60 @@ public enum Gather {
       throw new AssertionError("has not implemented");
     }
     
-    List<Callable<Entry<String, String>>> tasks = 
-        new ArrayList<Callable<Entry<String, String>>>(actions.size());
+    long span = Tracer.begin("Gather.ruduce");
+    try {
+      List<Callable<Entry<String, String>>> tasks = 
+          new ArrayList<Callable<Entry<String, String>>>(actions.size());
     
-    for (final Context context : actions.keySet()) {
-      final Action action = actions.get(context);
-      final String path = context.getPath();
-      tasks.add(new NamedCallable<Entry<String, String>>(path) {
-        @Override protected Entry<String, String> exec() {
-          String resp = null;
-          try {
-            resp = action.apply(context);
-          } catch (Exception ignored) {
+      // The task span starts at the submission, so that it shows the queue wait.
+      final long parent = Tracer.current();
+      final long submittedAt = System.nanoTime();
+      for (final Context context : actions.keySet()) {
+        final Action action = actions.get(context);
+        final String path = context.getPath();
+        tasks.add(new NamedCallable<Entry<String, String>>(path) {
+          @Override protected Entry<String, String> exec() {
+            String resp = null;
+            long task = Tracer.begin("Gather.task", path, parent, submittedAt);
+            long apply = Tracer.begin("Action.apply", path);
+            try {
+              resp = action.apply(context);
+            } catch (Exception ignored) {
 //            String fullStackTrace = ExceptionUtils.getFullStackTrace(ignored);
 //            resp = "{ code:500, message:\"call failed\""
 //                + ", fullStackTrace: \"" + fullStackTrace + "\""
 //                + " }";
-            // just ignore all the exceptions
-            // and indicate error with a error response.
+              // just ignore all the exceptions
+              // and indicate error with a error response.
+            } finally {
+              Tracer.end(apply);
+              Tracer.end(task);
+            }
+            return ImmutableEntry.of(path, resp);
           }
-          return ImmutableEntry.of(path, resp);
-        }
-      });
-    }
+        });
+      }
     
-    try {
-      List<Future<Entry<String, String>>> futureList = 
-          executorService.invokeAll(tasks, MAX_TIMEOUT, TimeUnit.SECONDS);
+      try {
+        List<Future<Entry<String, String>>> futureList = 
+            executorService.invokeAll(tasks, MAX_TIMEOUT, TimeUnit.SECONDS);
       
-      // Waiting for completing
-      for (Future<Entry<String, String>> future : futureList) {
-        try {
-          final Entry<String, String> ret = future.get();
-          result.put(ret.getKey(), ret.getValue());
-        } catch (ExecutionException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        } 
+        // Waiting for completing
+        for (Future<Entry<String, String>> future : futureList) {
+          try {
+            final Entry<String, String> ret = future.get();
+            result.put(ret.getKey(), ret.getValue());
+          } catch (ExecutionException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+          } 
+        }
+      } catch (InterruptedException e) {
+        // TODO Auto-generated catch block
+        e.printStackTrace();
       }
-    } catch (InterruptedException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    } finally {
+      Tracer.end(span);
     }
     return result;
   }
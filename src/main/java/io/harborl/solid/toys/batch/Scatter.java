@@ -1,5 +1,7 @@
 package io.harborl.solid.toys.batch;
 
+import io.harborl.solid.toys.tracing.Tracer;
+
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -34,18 +36,23 @@ public enum Scatter {
   map(Map<String, Map<String, Object>> requests) {
     Map<Context, Action> result = new HashMap<Context, Action>();
 
-    for (String path : requests.keySet()) {
-      if (actionByPath.containsKey(path)) {
-        Context.Builder bilder = 
-            new Context.Builder()
-              .path(path)
-              .parameters(requests.get(path));
+    long span = Tracer.begin("Scatter.map");
+    try {
+      for (String path : requests.keySet()) {
+        if (actionByPath.containsKey(path)) {
+          Context.Builder bilder = 
+              new Context.Builder()
+                .path(path)
+                .parameters(requests.get(path));
 
-        result.put(bilder.build(), actionByPath.get(path));
-      } else {
-        result.put(
-            new Context.Builder().path(path).build(), NotFound.ACTION);
+          result.put(bilder.build(), actionByPath.get(path));
+        } else {
+          result.put(
+              new Context.Builder().path(path).build(), NotFound.ACTION);
+        }
       }
+    } finally {
+      Tracer.end(span);
     }
     return result;
   }
@@ -0,0 +1,199 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@code BridgeReceiver} accepts the messages forwarded by {@linkplain SocketBridge}s
+ * of other processes on the same host, and re-dispatches them into a local
+ * {@linkplain Dispatch}.
+ * <p>
+ * All the connections are served by a single non-blocking I/O thread. The messages
+ * are dispatched on that thread, so a saturated local dispatch (which runs the
+ * messages on the caller) stops the reading, and the senders are slowed down
+ * by the socket flow control instead of buffering without bound here.
+ * <p>
+ * A frame failing to be deserialized or dispatched is logged, and closes only
+ * the connection it came from, the other connections keep being served.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the message type
+ */
+public final class BridgeReceiver<T> {
+
+  /** The max size of a frame, a larger one indicates a broken stream. */
+  private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+  private static final int BUFFER_BYTES = 64 * 1024;
+
+  private static final Logger logger = Logger.getLogger(BridgeReceiver.class.getName());
+
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final Serializer<T> serializer;
+  private final Dispatch<T, ?> target;
+  private final Thread io;
+
+  private volatile boolean closed;
+
+  private BridgeReceiver(int port, Serializer<T> serializer, Dispatch<T, ?> target)
+      throws IOException {
+    this.serializer = serializer;
+    this.target = target;
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    try {
+      server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), port));
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      server.close();
+      selector.close();
+      throw e;
+    }
+    this.io = new Thread(new Runnable() {
+      @Override public void run() {
+        loop();
+      }
+    }, "[BridgeReceiver] - io - " + server.socket().getLocalPort());
+    this.io.setDaemon(true);
+    this.io.start();
+  }
+
+  /**
+   * Starts receiving messages on a local port.
+   *
+   * @param port the port to listen on the loop-back address, 0 for any free port
+   * @param serializer the serializer of messages
+   * @param target the local dispatch the messages are dispatched into
+   * @return the receiver instance
+   * @throws IOException if the port can not be listened on
+   *
+   * @param <T> the message type
+   */
+  public static <T> BridgeReceiver<T> listen(int port, Serializer<T> serializer,
+      Dispatch<T, ?> target) throws IOException {
+    if (serializer == null || target == null) throw new NullPointerException();
+
+    return new BridgeReceiver<T>(port, serializer, target);
+  }
+
+  /**
+   * @return the port it listens on
+   */
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Stops receiving and closes all the connections, the local dispatch is left as it is.
+   */
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    try {
+      io.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void loop() {
+    try {
+      while (!closed) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable()) {
+            read(key);
+          }
+        }
+      }
+    } catch (IOException e) {
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        close(key);
+      }
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = server.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(BUFFER_BYTES));
+  }
+
+  private void read(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    ByteBuffer buffer = (ByteBuffer) key.attachment();
+    try {
+      if (channel.read(buffer) < 0) {
+        close(key);
+        return;
+      }
+      buffer.flip();
+      while (buffer.remaining() >= 4) {
+        int length = buffer.getInt(buffer.position());
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+          throw new IOException("broken frame length: " + length);
+        }
+        if (buffer.remaining() < 4 + length) {
+          if (4 + length > buffer.capacity()) {
+            // Grows for a frame larger than the buffer.
+            ByteBuffer larger = ByteBuffer.allocate(4 + length);
+            larger.put(buffer);
+            key.attach(larger);
+            return;
+          }
+          break;
+        }
+        buffer.getInt();
+        byte[] frame = new byte[length];
+        buffer.get(frame);
+        target.dispatch(serializer.deserialize(frame));
+      }
+      buffer.compact();
+    } catch (IOException e) {
+      close(key);
+    } catch (RuntimeException e) {
+      // The rest of the stream can not be trusted, only this connection is given up.
+      logger.log(Level.WARNING, "failed to receive from " + channel.socket().getRemoteSocketAddress(), e);
+      close(key);
+    }
+  }
+
+  private void close(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException ignored) {
+    }
+  }
+}
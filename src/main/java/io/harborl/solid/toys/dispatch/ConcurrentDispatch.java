@@ -1,19 +1,49 @@
 package io.harborl.solid.toys.dispatch;
 
+import io.harborl.solid.toys.filter.Expressions;
 import io.harborl.solid.toys.filter.Filter;
+import io.harborl.solid.toys.tracing.Tracer;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 
 /**
  * A max concurrent level specified simple thread-safe {@code Dispatch} 
  * that is used to dispatch the message to all subscribers with 
  * its specified {@linkplain Filter} asynchronously.
+ * <p>
+ * By default, a single dispatch task notifies all the matching subscribers in turn.
+ * An {@linkplain #isolated(int, int, Overflow) isolated} dispatch instead gives every 
+ * subscriber its own bounded mailbox and drain loop, so that a slow subscriber 
+ * can not hold up the others.
+ * <p>
+ * The dispatch path does not allocate in steady state: the subscribers are kept 
+ * in an immutable array snapshot which is swapped atomically on every 
+ * {@code register} and {@code remove}, and the dispatch tasks are recycled carriers.
+ * <p>
+ * The delivery metrics of every subscriber and the dispatch itself are kept all 
+ * the time, they are available through {@linkplain #stats()} and JMX once the 
+ * dispatch is {@linkplain #expose(String) exposed}. An exception thrown by a filter
+ * or a subscriber is counted and reported to the uncaught exception handler of 
+ * current thread, the other subscribers are still notified.
  * 
  * @author Harbor Luo
  * @since 0.1.0
@@ -23,20 +53,50 @@ import java.util.concurrent.TimeUnit;
 public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
   
   /**
-   * The all subscribers hold in this dispatch.
+   * The snapshot of all subscribers hold in this dispatch.
    */
-  private final ConcurrentHashMap<String, Pair<Subscriber<T>, Filter<T>>> subs;
+  private final AtomicReference<Subscription<T>[]> subs;
   
   /**
    * The underlying thread pool based executor.
    */
-  private final ExecutorService executor;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * The number of dispatch tasks run by the callers and the rejected messages.
+   */
+  private final AtomicLong callerRuns = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * The number of dispatch tasks being run by the callers, which is also 
+   * the monitor notified when it drops to zero.
+   */
+  private final AtomicInteger callersRunning = new AtomicInteger();
+
+  /**
+   * The JMX name it is exposed with, or null if not exposed.
+   */
+  private volatile ObjectName mbeanName;
+
+  /**
+   * The recycled dispatch tasks, an empty slot is null.
+   */
+  private final AtomicReferenceArray<Delivery> carriers;
+
+  /**
+   * The executor running the mailbox drain loops, or null if subscribers are not isolated.
+   */
+  private final ExecutorService drainer;
+
+  /**
+   * The mailbox capacity and overflow policy of every isolated subscriber.
+   */
+  private final int capacity;
+  private final Overflow overflow;
   
-  private ConcurrentDispatch(int level) {
-    /*
-     * Use a ConcurrentHashMap to simplify the thread-safe issues.
-     */
-    this.subs = new ConcurrentHashMap<String, Pair<Subscriber<T>, Filter<T>>>();
+  private ConcurrentDispatch(int level, int capacity, Overflow overflow) {
+    this.subs = new AtomicReference<Subscription<T>[]>(Subscription.<T>none());
     /*
      * Thread pool operation strategy:
      * Max concurrent level specified pool size.
@@ -47,7 +107,22 @@ public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
         new ThreadPoolExecutor(0, level,
           60L, TimeUnit.SECONDS,
           new SynchronousQueue<Runnable>(),
-          new ThreadPoolExecutor.CallerRunsPolicy());
+          new CountingCallerRunsPolicy());
+    /*
+     * At most 'level' carriers are in flight on the pool, plus the ones 
+     * run by the callers when the pool is saturated.
+     */
+    this.carriers = new AtomicReferenceArray<Delivery>(level * 2);
+    for (int i = 0; i < carriers.length(); i++) {
+      carriers.set(i, new Delivery());
+    }
+    /*
+     * Every mailbox has at most one active drain loop, so the number of 
+     * drain threads is bounded by the number of subscribers.
+     */
+    this.drainer = overflow == null ? null : Executors.newCachedThreadPool();
+    this.capacity = capacity;
+    this.overflow = overflow;
   }
 
   /**
@@ -58,10 +133,30 @@ public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
    * 
    * @param <T> the message type of dispatching
    */
-  public static <T> Dispatch<T, String> valueOf(int level) {
+  public static <T> ConcurrentDispatch<T> valueOf(int level) {
     if (level <= 0) throw new IllegalArgumentException("level <= 0");
     
-    return new ConcurrentDispatch<T>(level);
+    return new ConcurrentDispatch<T>(level, 0, null);
+  }
+
+  /**
+   * Creates a max concurrent level specified dispatch instance that isolates 
+   * its subscribers from each other. Every subscriber is notified through its 
+   * own bounded mailbox drained by a dedicated loop.
+   * 
+   * @param level the max concurrent level
+   * @param capacity the max number of messages a subscriber mailbox holds
+   * @param overflow the policy applied when a subscriber mailbox is full
+   * @return the dispatch instance
+   * 
+   * @param <T> the message type of dispatching
+   */
+  public static <T> ConcurrentDispatch<T> isolated(int level, int capacity, Overflow overflow) {
+    if (level <= 0) throw new IllegalArgumentException("level <= 0");
+    if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+    if (overflow == null) throw new NullPointerException("overflow == null");
+
+    return new ConcurrentDispatch<T>(level, capacity, overflow);
   }
 
   /**
@@ -71,21 +166,84 @@ public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
    */
   @Override
   public void dispatch(final T t) {
+    Delivery delivery = acquire();
+    delivery.message = t;
+    if (Tracer.isEnabled()) {
+      delivery.parent = Tracer.current();
+      delivery.dispatchedAt = System.nanoTime();
+    }
     try {
-      executor.execute(new Runnable() {
-  
-        @Override
-        public void run() {
-          for (Pair<Subscriber<T>, Filter<T>> pair : subs.values()) {
-            if (pair.value.test(t)) {
-              pair.key.notify(t);
+      executor.execute(delivery);
+    } catch (RejectedExecutionException shutdownAlready) {
+      delivery.message = null;
+      release(delivery);
+      rejected.incrementAndGet();
+      reject();
+    }
+  }
+
+  /**
+   * Notifies a message to all the subscribers of current snapshot.
+   */
+  private void deliver(T t) {
+    // The filters compiled by the same Expressions evaluate their common parts once per message.
+    Object outer = Expressions.enter(t);
+    try {
+      for (Subscription<T> sub : subs.get()) {
+        SubscriberMetrics metrics = sub.metrics;
+        long span = Tracer.begin("Subscriber.notify", sub.key);
+        long start = System.nanoTime();
+        try {
+          boolean matched = sub.filter.test(t);
+          long tested = System.nanoTime();
+          metrics.filter.record(tested - start);
+          if (matched) {
+            sub.subscriber.notify(t);
+            // An isolated subscriber records its notification in the mailbox drain loop.
+            if (!sub.isolated) {
+              metrics.notify.record(System.nanoTime() - tested);
             }
           }
+        } catch (RuntimeException e) {
+          metrics.failures.incrementAndGet();
+          Thread current = Thread.currentThread();
+          current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        } finally {
+          Tracer.end(span);
         }
-        
-      });
-    } catch (RejectedExecutionException shutdownAlready) {
-      reject();
+      }
+    } finally {
+      Expressions.exit(outer);
+    }
+  }
+
+  /**
+   * Takes a recycled carrier, or creates a new one if all of them are in flight.
+   */
+  private Delivery acquire() {
+    final int n = carriers.length();
+    final int from = (int) (Thread.currentThread().getId() % n);
+    for (int i = 0; i < n; i++) {
+      int slot = (from + i) % n;
+      Delivery d = carriers.get(slot);
+      if (d != null && carriers.compareAndSet(slot, d, null)) {
+        return d;
+      }
+    }
+    return new Delivery();
+  }
+
+  /**
+   * Gives back a carrier, it is just left to GC if all the slots are taken.
+   */
+  private void release(Delivery d) {
+    final int n = carriers.length();
+    final int from = (int) (Thread.currentThread().getId() % n);
+    for (int i = 0; i < n; i++) {
+      int slot = (from + i) % n;
+      if (carriers.get(slot) == null && carriers.compareAndSet(slot, null, d)) {
+        return;
+      }
     }
   }
 
@@ -101,21 +259,58 @@ public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
       reject();
     }
 
-    return subs.putIfAbsent(key, Pair.of(o, f)) == null;
+    SubscriberMetrics metrics = new SubscriberMetrics();
+    Subscriber<T> target = 
+        drainer == null ? o : new Mailbox<T>(key, o, capacity, overflow, drainer, metrics);
+    Subscription<T> sub = new Subscription<T>(key, target, f, metrics);
+    for (;;) {
+      Subscription<T>[] current = subs.get();
+      if (indexOf(current, key) >= 0) {
+        return false;
+      }
+      Subscription<T>[] next = Subscription.copyOf(current, current.length + 1);
+      next[current.length] = sub;
+      if (subs.compareAndSet(current, next)) {
+        return true;
+      }
+    }
   }
 
   private void reject() {
     throw new IllegalStateException("dispatch is dismissed");
   }
 
+  /**
+   * Removes the subscriber with this identity. The messages already in 
+   * the mailbox of an isolated subscriber are still delivered.
+   */
   @Override
   public boolean remove(String key) {
-    return subs.remove(key) != null;
+    for (;;) {
+      Subscription<T>[] current = subs.get();
+      int index = indexOf(current, key);
+      if (index < 0) {
+        return false;
+      }
+      Subscription<T>[] next = Subscription.copyOf(current, current.length - 1);
+      System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+      if (subs.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  private static int indexOf(Subscription<?>[] snapshot, String key) {
+    for (int i = 0; i < snapshot.length; i++) {
+      if (snapshot[i].key.equals(key)) return i;
+    }
+    return -1;
   }
 
   /**
    * Rejects the further dispatch message and subscriber registering, 
    * and waits till the completion of preview messages to be dispatched.
+   * If subscribers are isolated, it also waits till their mailboxes are drained.
    * Finally, clear all the subscribers hold in this dispatch and break.
    */
   @Override
@@ -123,28 +318,218 @@ public final class ConcurrentDispatch<T> implements Dispatch<T, String> {
     executor.shutdown();
     try {
       executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      awaitCallerRuns();
+      /*
+       * No message can be queued any more since the dispatch tasks on both the 
+       * pool and the callers have finished, so the drain loops just finish the 
+       * queued ones.
+       */
+      if (drainer != null) {
+        drainer.shutdown();
+        drainer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     } finally {
-      subs.clear();
+      subs.set(Subscription.<T>none());
+      unexpose();
+    }
+  }
+
+  /**
+   * Waits till the dispatch tasks run by the callers finish, the pool 
+   * termination does not cover them.
+   */
+  private void awaitCallerRuns() throws InterruptedException {
+    synchronized (callersRunning) {
+      while (callersRunning.get() > 0) {
+        callersRunning.wait();
+      }
+    }
+  }
+
+  /**
+   * Takes a snapshot of the metrics of this dispatch and all its subscribers.
+   * 
+   * @return the snapshot of metrics
+   */
+  public DispatchStats stats() {
+    Map<String, SubscriberStats> subscribers = new HashMap<String, SubscriberStats>();
+    int queueDepth = 0;
+    for (Subscription<T> sub : subs.get()) {
+      MailboxStats mailbox = null;
+      if (sub.isolated) {
+        mailbox = ((Mailbox<T>) sub.subscriber).stats();
+        queueDepth += mailbox.getDepth();
+      }
+      subscribers.put(sub.key, sub.metrics.stats(sub.key, mailbox));
+    }
+    return new DispatchStats(executor.getActiveCount(), callerRuns.get(), rejected.get(),
+        queueDepth, Collections.unmodifiableMap(subscribers));
+  }
+
+  /**
+   * Registers the metrics of this dispatch to the platform MBean server with name
+   * <tt>io.harborl.solid.toys.dispatch:type=ConcurrentDispatch,name=&lt;name&gt;</tt>,
+   * which is unregistered when the dispatch is dismissed.
+   * 
+   * @param name the name of this dispatch
+   * @throws IllegalStateException if it is exposed already or can not be registered.
+   */
+  public synchronized void expose(String name) {
+    if (name == null) throw new NullPointerException("name == null");
+    if (mbeanName != null) throw new IllegalStateException("exposed already as " + mbeanName);
+
+    try {
+      ObjectName objectName = new ObjectName("io.harborl.solid.toys.dispatch:type=ConcurrentDispatch,name=" 
+          + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), objectName);
+      mbeanName = objectName;
+    } catch (JMException e) {
+      throw new IllegalStateException("can not expose as " + name, e);
+    }
+  }
+
+  private synchronized void unexpose() {
+    if (mbeanName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(mbeanName);
+    } catch (JMException ignored) {
+      // unregistered by others
+    } finally {
+      mbeanName = null;
+    }
+  }
+
+  /**
+   * Returns the mailbox metrics of all isolated subscribers by their identities,
+   * it is empty if this dispatch does not isolate subscribers.
+   * 
+   * @return the snapshot of mailbox metrics
+   */
+  public Map<String, MailboxStats> mailboxStats() {
+    Map<String, MailboxStats> stats = new HashMap<String, MailboxStats>();
+    for (Subscription<T> sub : subs.get()) {
+      if (sub.isolated) {
+        stats.put(sub.key, ((Mailbox<T>) sub.subscriber).stats());
+      }
     }
+    return Collections.unmodifiableMap(stats);
   }
 
   /**
-   * A simple immutable definition of key value pair.
+   * A reusable dispatch task carrying one message at a time, with the span 
+   * of the dispatching thread when the tracing is on.
+   */
+  private final class Delivery implements Runnable {
+    T message;
+    long parent = Tracer.NONE;
+    long dispatchedAt;
+
+    @Override
+    public void run() {
+      T t = message;
+      message = null;
+      long span = dispatchedAt == 0 ? Tracer.NONE
+          : Tracer.begin("ConcurrentDispatch.deliver", null, parent, dispatchedAt);
+      parent = Tracer.NONE;
+      dispatchedAt = 0;
+      try {
+        deliver(t);
+      } finally {
+        Tracer.end(span);
+        release(this);
+      }
+    }
+  }
+
+  /**
+   * A Caller-Runs policy counting the caller runs, and rejecting the 
+   * dispatch task instead of discarding it once the pool is shut down.
+   * <p>
+   * A caller run is counted as running before the shutdown check, so either 
+   * {@linkplain #dismiss()} waits for it, or it sees the shutdown and is rejected.
+   */
+  private final class CountingCallerRunsPolicy implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+      callersRunning.incrementAndGet();
+      try {
+        if (e.isShutdown()) {
+          throw new RejectedExecutionException("dispatch is dismissed");
+        }
+        callerRuns.incrementAndGet();
+        r.run();
+      } finally {
+        if (callersRunning.decrementAndGet() == 0) {
+          synchronized (callersRunning) {
+            callersRunning.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The JMX view of the live metrics.
+   */
+  private final class MXBean implements DispatchMXBean {
+    @Override public int getActiveThreads() {
+      return executor.getActiveCount();
+    }
+
+    @Override public long getCallerRuns() {
+      return callerRuns.get();
+    }
+
+    @Override public long getRejected() {
+      return rejected.get();
+    }
+
+    @Override public int getQueueDepth() {
+      return stats().getQueueDepth();
+    }
+
+    @Override public Map<String, SubscriberStats> getSubscribers() {
+      return stats().getSubscribers();
+    }
+  }
+
+  /**
+   * An immutable registration of a subscriber with its filter and identity.
    *
-   * @param <K> the key type.
-   * @param <V> the value type.
+   * @param <T> the message type.
    */
-  static class Pair<K, V> {
-    final K key;
-    final V value;
-    Pair(K key, V value) {
+  static final class Subscription<T> {
+    private static final Subscription<?>[] NONE = new Subscription<?>[0];
+
+    final String key;
+    final Subscriber<T> subscriber;
+    final Filter<T> filter;
+    final SubscriberMetrics metrics;
+    final boolean isolated;
+
+    Subscription(String key, Subscriber<T> subscriber, Filter<T> filter, SubscriberMetrics metrics) {
       this.key = key;
-      this.value = value;
+      this.subscriber = subscriber;
+      this.filter = filter;
+      this.metrics = metrics;
+      this.isolated = subscriber instanceof Mailbox;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Subscription<T>[] none() {
+      return (Subscription<T>[]) NONE;
     }
-    static <K, V> Pair<K, V> of(K key, V value) {
-      return new Pair<K, V>(key, value);
+
+    @SuppressWarnings("unchecked")
+    static <T> Subscription<T>[] copyOf(Subscription<T>[] snapshot, int length) {
+      Subscription<T>[] copy = (Subscription<T>[]) new Subscription<?>[length];
+      System.arraycopy(snapshot, 0, copy, 0, Math.min(length, snapshot.length));
+      return copy;
     }
   }
 
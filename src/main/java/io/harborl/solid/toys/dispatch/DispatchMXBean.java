@@ -0,0 +1,23 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of a {@linkplain ConcurrentDispatch}, 
+ * see {@linkplain DispatchStats} for the meaning of every attribute.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public interface DispatchMXBean {
+
+  int getActiveThreads();
+
+  long getCallerRuns();
+
+  long getRejected();
+
+  int getQueueDepth();
+
+  Map<String, SubscriberStats> getSubscribers();
+}
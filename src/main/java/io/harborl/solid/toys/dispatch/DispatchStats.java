@@ -0,0 +1,59 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.util.Map;
+
+/**
+ * An immutable point-in-time snapshot of the metrics of a {@linkplain ConcurrentDispatch}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class DispatchStats {
+
+  private final int activeThreads;
+  private final long callerRuns;
+  private final long rejected;
+  private final int queueDepth;
+  private final Map<String, SubscriberStats> subscribers;
+
+  DispatchStats(int activeThreads, long callerRuns, long rejected, int queueDepth,
+      Map<String, SubscriberStats> subscribers) {
+    this.activeThreads = activeThreads;
+    this.callerRuns = callerRuns;
+    this.rejected = rejected;
+    this.queueDepth = queueDepth;
+    this.subscribers = subscribers;
+  }
+
+  /** @return the number of pool threads running dispatch tasks */
+  public int getActiveThreads() {
+    return activeThreads;
+  }
+
+  /** @return the number of messages delivered by the caller since the pool was saturated */
+  public long getCallerRuns() {
+    return callerRuns;
+  }
+
+  /** @return the number of messages rejected since the dispatch was dismissed */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /** @return the number of messages waiting in the subscriber mailboxes */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /** @return the metrics of all subscribers by their identities */
+  public Map<String, SubscriberStats> getSubscribers() {
+    return subscribers;
+  }
+
+  @Override
+  public String toString() {
+    return "DispatchStats [activeThreads=" + activeThreads + ", callerRuns=" + callerRuns
+        + ", rejected=" + rejected + ", queueDepth=" + queueDepth 
+        + ", subscribers=" + subscribers.values() + "]";
+  }
+}
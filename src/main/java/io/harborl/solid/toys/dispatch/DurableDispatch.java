@@ -0,0 +1,266 @@
+package io.harborl.solid.toys.dispatch;
+
+import io.harborl.solid.toys.filter.Filter;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A persistent {@code Dispatch} that appends every message to a {@linkplain Journal}
+ * before delivering it, which gives an at-least-once delivery to its subscribers.
+ * <p>
+ * Every subscriber runs its own delivery loop which reads the journal from the
+ * committed offset of its identity, and commits the offset after a message is
+ * handled. Therefore, a subscriber resumes from where it stopped after a restart,
+ * and a subscriber registered late replays the retained history.
+ * A message failed to be delivered is retried till it succeeds.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the message type of dispatching
+ */
+public final class DurableDispatch<T> implements Dispatch<T, String> {
+
+  /** The max time a delivery loop waits for new messages before re-checking its state. */
+  private static final long POLL_MILLIS = 100L;
+
+  /** The pause before a failed delivery is retried. */
+  private static final long RETRY_MILLIS = 1000L;
+
+  private final Journal journal;
+  private final Serializer<T> serializer;
+
+  /**
+   * The delivery loops by subscriber identities.
+   */
+  private final ConcurrentMap<String, Cursor> cursors;
+
+  /**
+   * The executor running the delivery loops, one thread per subscriber.
+   */
+  private final ExecutorService executor;
+
+  private volatile boolean dismissed;
+
+  private DurableDispatch(Journal journal, Serializer<T> serializer) {
+    this.journal = journal;
+    this.serializer = serializer;
+    this.cursors = new ConcurrentHashMap<String, Cursor>();
+    this.executor = Executors.newCachedThreadPool();
+  }
+
+  /**
+   * Creates a dispatch instance persisting messages in the specified journal.
+   *
+   * @param journal the journal keeping messages and subscriber offsets
+   * @param serializer the serializer of messages
+   * @return the dispatch instance
+   *
+   * @param <T> the message type of dispatching
+   */
+  public static <T> DurableDispatch<T> valueOf(Journal journal, Serializer<T> serializer) {
+    if (journal == null || serializer == null) throw new NullPointerException();
+
+    return new DurableDispatch<T>(journal, serializer);
+  }
+
+  /**
+   * Appends a specified message to the journal, it will be delivered asynchronously.
+   *
+   * @throws IllegalStateException if dispatch is in dismissed state,
+   * or the message can not be appended to the journal.
+   */
+  @Override
+  public void dispatch(T t) {
+    if (dismissed) {
+      reject();
+    }
+    try {
+      journal.append(serializer.serialize(t));
+    } catch (IOException e) {
+      throw new IllegalStateException("journal append failed", e);
+    }
+  }
+
+  /**
+   * Registers a subscriber, which resumes from the committed offset of its
+   * identity, or replays from the oldest retained message if there is none.
+   *
+   * @throws IllegalStateException if dispatch is in dismissed state.
+   */
+  @Override
+  public boolean register(Subscriber<T> o, Filter<T> f, String key) {
+    long committed;
+    try {
+      committed = journal.committed(key);
+    } catch (IOException e) {
+      throw new IllegalStateException("offset load failed", e);
+    }
+    // A record torn off on the recovery may leave the committed offset beyond the end.
+    return register(o, f, key, 
+        committed < 0 ? journal.startOffset() : Math.min(committed, journal.endOffset()));
+  }
+
+  /**
+   * Registers a subscriber which replays messages from the specified offset.
+   *
+   * @param o the subscriber
+   * @param f the filter
+   * @param key the identity
+   * @param offset the journal offset of the first message to deliver,
+   * see {@linkplain Journal#startOffset()} and {@linkplain Journal#endOffset()}.
+   * @return true if succeed, false if the specified identity had been existed.
+   * @throws IllegalStateException if dispatch is in dismissed state.
+   * @throws IllegalArgumentException if the offset is not the one of a message.
+   */
+  public boolean register(Subscriber<T> o, Filter<T> f, String key, long offset) {
+    if (o == null || f == null || key == null)
+      throw new IllegalArgumentException();
+
+    if (dismissed) {
+      reject();
+    }
+
+    Cursor cursor = new Cursor(key, o, f, offset);
+    if (cursors.putIfAbsent(key, cursor) != null) {
+      return false;
+    }
+    executor.execute(cursor);
+    return true;
+  }
+
+  private void reject() {
+    throw new IllegalStateException("dispatch is dismissed");
+  }
+
+  /**
+   * Removes the subscriber with this identity, its committed offset is kept
+   * so that it resumes from there when it is registered again.
+   */
+  @Override
+  public boolean remove(String key) {
+    Cursor cursor = cursors.remove(key);
+    if (cursor == null) {
+      return false;
+    }
+    cursor.stopAt = Long.MIN_VALUE;
+    return true;
+  }
+
+  /**
+   * Returns the committed offset of a subscriber.
+   *
+   * @param key the identity of the subscriber
+   * @return the committed offset, or -1 if there is none.
+   */
+  public long offsetOf(String key) {
+    try {
+      return journal.committed(key);
+    } catch (IOException e) {
+      throw new IllegalStateException("offset load failed", e);
+    }
+  }
+
+  /**
+   * Rejects the further dispatch message and subscriber registering,
+   * and waits till the subscribers have handled the appended messages.
+   * Finally, closes the journal. A message still failing at this moment
+   * is left in the journal and delivered after the next start.
+   */
+  @Override
+  public void dismiss() {
+    dismissed = true;
+    long end = journal.endOffset();
+    for (Cursor cursor : cursors.values()) {
+      cursor.stopAt = end;
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      cursors.clear();
+      journal.close();
+    }
+  }
+
+  /**
+   * The delivery loop of a subscriber.
+   */
+  private final class Cursor implements Runnable {
+    final String key;
+    final Subscriber<T> subscriber;
+    final Filter<T> filter;
+    final Journal.Reader reader;
+
+    /** The offset to stop at, or {@code Long.MAX_VALUE} if it is running. */
+    volatile long stopAt = Long.MAX_VALUE;
+
+    Cursor(String key, Subscriber<T> subscriber, Filter<T> filter, long offset) {
+      this.key = key;
+      this.subscriber = subscriber;
+      this.filter = filter;
+      this.reader = journal.reader(offset);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (reader.position() < stopAt) {
+          long offset = reader.position();
+          byte[] payload = reader.next();
+          if (payload == null) {
+            if (stopAt != Long.MAX_VALUE) {
+              break;
+            }
+            journal.await(offset, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            continue;
+          }
+          if (!deliver(serializer.deserialize(payload))) {
+            break;
+          }
+          journal.commit(key, reader.position());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (IOException e) {
+        report(e);
+      }
+    }
+
+    /**
+     * Delivers a message till it succeeds or the loop is stopping.
+     *
+     * @return true if the message is handled.
+     */
+    private boolean deliver(T t) throws InterruptedException {
+      for (;;) {
+        try {
+          if (filter.test(t)) {
+            subscriber.notify(t);
+          }
+          return true;
+        } catch (RuntimeException e) {
+          report(e);
+          if (stopAt != Long.MAX_VALUE) {
+            return false;
+          }
+          Thread.sleep(RETRY_MILLIS);
+        }
+      }
+    }
+
+    private void report(Exception e) {
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+  }
+
+}
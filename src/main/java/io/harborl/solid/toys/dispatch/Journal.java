@@ -0,0 +1,568 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A {@code Journal} is an append-only, segmented and memory-mapped log of records,
+ * which is used to keep the dispatching messages on disk.
+ * <p>
+ * Every record is addressed by its offset, the byte position in the whole journal.
+ * A segment is a fixed size file named by the offset of its first byte, and its
+ * records are laid out as <tt>[length + 1][crc32][payload]</tt>, so that neither
+ * an empty record nor the end of a segment is mistaken for the zeroed free space.
+ * The old segments are deleted once the journal exceeds the retained size on
+ * rolling, or they exceed the retained age on rolling or committing an offset.
+ * <p>
+ * Besides the records, the journal keeps the committed offset of every reader key,
+ * so that a reader can resume from where it stopped after a restart.
+ * <p>
+ * <b>Thread Safe: </b>
+ * The appending and the offset committing are thread-safe, while a
+ * {@linkplain Reader} should be confined to a single thread.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class Journal {
+
+  /** The size of record header, which is the length and the crc32 of payload. */
+  private static final int HEADER = 8;
+
+  /** The length mark of the end of a segment, the one of a record is its length + 1. */
+  private static final int END_OF_SEGMENT = -1;
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String OFFSET_SUFFIX = ".offset";
+
+  private final File directory;
+  private final File offsetDirectory;
+  private final int segmentBytes;
+  private final long retainBytes;
+  private final long retainMillis;
+  private final boolean force;
+
+  /** All the segments by their base offsets. */
+  private final ConcurrentSkipListMap<Long, Segment> segments =
+      new ConcurrentSkipListMap<Long, Segment>();
+
+  /** The committed offsets by reader keys. */
+  private final ConcurrentMap<String, MappedByteBuffer> offsets =
+      new ConcurrentHashMap<String, MappedByteBuffer>();
+
+  // Guarded by this
+  private Segment active;
+  private int position;
+  private boolean closed;
+  private final CRC32 crc = new CRC32();
+
+  /** The offset next record will be appended to, all records below it are readable. */
+  private volatile long endOffset;
+
+  /** The time the oldest sealed segment expires at, or {@code Long.MAX_VALUE}. */
+  private volatile long expiresAt = Long.MAX_VALUE;
+
+  private Journal(Builder builder) throws IOException {
+    this.directory = builder.directory;
+    this.offsetDirectory = new File(directory, "offsets");
+    this.segmentBytes = builder.segmentBytes;
+    this.retainBytes = builder.retainBytes;
+    this.retainMillis = builder.retainMillis;
+    this.force = builder.force;
+
+    if (!offsetDirectory.isDirectory() && !offsetDirectory.mkdirs())
+      throw new IOException("can not create directory " + offsetDirectory);
+
+    recover();
+  }
+
+  /**
+   * Maps the existing segments and finds the end of the last one.
+   * A torn record at the end is discarded.
+   */
+  private void recover() throws IOException {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    Arrays.sort(files);
+
+    for (File file : files) {
+      String name = file.getName();
+      long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      Segment segment = new Segment(base, file, map(file), file.lastModified());
+      segments.put(base, segment);
+    }
+
+    if (segments.isEmpty()) {
+      active = newSegment(0L);
+      position = 0;
+    } else {
+      active = segments.lastEntry().getValue();
+      active.sealedAt = 0L;
+      position = scan(active.buffer);
+      // Wipes the tail so that a torn record never looks like a valid one.
+      for (int i = position; i < segmentBytes; i++) {
+        active.buffer.put(i, (byte) 0);
+      }
+    }
+    endOffset = active.base + position;
+    retain();
+  }
+
+  /** Returns the position after the last valid record of a segment. */
+  private int scan(ByteBuffer buffer) {
+    int pos = 0;
+    byte[] payload = new byte[0];
+    for (int length; (length = lengthAt(buffer, pos)) >= 0; pos += HEADER + length) {
+      if (payload.length < length) {
+        payload = new byte[length];
+      }
+      if (!read(buffer, pos, payload, length, crc)) {
+        break;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the payload length of the record at a position of a segment, or -1 
+   * if there is none, i.e. the free space, the end mark or a broken length.
+   */
+  private int lengthAt(ByteBuffer buffer, int pos) {
+    if (pos + HEADER > segmentBytes) {
+      return -1;
+    }
+    int length = buffer.getInt(pos) - 1;
+    return length < 0 || length > segmentBytes - pos - HEADER ? -1 : length;
+  }
+
+  /** Copies the payload of a record, and returns whether it matches the crc32 stored. */
+  private static boolean read(ByteBuffer buffer, int pos, byte[] payload, int length, CRC32 crc) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(pos + HEADER);
+    view.get(payload, 0, length);
+    crc.reset();
+    crc.update(payload, 0, length);
+    return (int) crc.getValue() == buffer.getInt(pos + 4);
+  }
+
+  private MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(segmentBytes);
+      // The mapping stays valid after the channel is closed.
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private Segment newSegment(long base) throws IOException {
+    File file = new File(directory, String.format("%020d%s", base, SEGMENT_SUFFIX));
+    Segment segment = new Segment(base, file, map(file), 0L);
+    segments.put(base, segment);
+    return segment;
+  }
+
+  /**
+   * Appends a record to the journal.
+   *
+   * @param payload the record
+   * @return the offset of the record
+   * @throws IOException if a new segment can not be created
+   * @throws IllegalArgumentException if the record does not fit in a segment
+   * @throws IllegalStateException if the journal is closed
+   */
+  public synchronized long append(byte[] payload) throws IOException {
+    if (closed) throw new IllegalStateException("journal is closed");
+    if (HEADER + payload.length > segmentBytes)
+      throw new IllegalArgumentException("record size out of range: " + payload.length);
+
+    if (position + HEADER + payload.length > segmentBytes) {
+      roll();
+    }
+
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+    MappedByteBuffer buffer = active.buffer;
+    ByteBuffer view = buffer.duplicate();
+    view.position(position + HEADER);
+    view.put(payload);
+    buffer.putInt(position + 4, (int) crc.getValue());
+    // The length goes last, a record without it is never seen by recovery.
+    buffer.putInt(position, payload.length + 1);
+    if (force) {
+      buffer.force();
+    }
+
+    long offset = active.base + position;
+    position += HEADER + payload.length;
+    endOffset = active.base + position;
+    notifyAll();
+    return offset;
+  }
+
+  /** Seals the active segment and starts a new one. */
+  private void roll() throws IOException {
+    if (position + 4 <= segmentBytes) {
+      active.buffer.putInt(position, END_OF_SEGMENT);
+    }
+    active.buffer.force();
+    active.sealedAt = System.currentTimeMillis();
+
+    active = newSegment(active.base + segmentBytes);
+    position = 0;
+    retain();
+  }
+
+  /** Deletes the oldest sealed segments which are beyond the retention. */
+  private void retain() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+      Segment segment = entry.getValue();
+      if (segment == active) {
+        break;
+      }
+      boolean oversize =
+          retainBytes > 0 && (long) segments.size() * segmentBytes > retainBytes;
+      boolean expired = retainMillis > 0 && now - segment.sealedAt > retainMillis;
+      if (!oversize && !expired) {
+        break;
+      }
+      segments.remove(entry.getKey());
+      // The readers still holding its mapping are not affected on deletion.
+      segment.file.delete();
+    }
+    Segment oldest = segments.firstEntry().getValue();
+    expiresAt = retainMillis > 0 && oldest != active
+        ? oldest.sealedAt + retainMillis : Long.MAX_VALUE;
+  }
+
+  /**
+   * Deletes the expired segments if the oldest one is due, so that the age
+   * retention applies while the journal is not rolling.
+   */
+  private void expire() {
+    if (System.currentTimeMillis() <= expiresAt) {
+      return;
+    }
+    synchronized (this) {
+      retain();
+    }
+  }
+
+  /**
+   * Returns the offset of the oldest retained record.
+   *
+   * @return the offset of the oldest retained record
+   */
+  public long startOffset() {
+    return segments.firstKey();
+  }
+
+  /**
+   * Returns the offset the next record will be appended to.
+   *
+   * @return the offset the next record will be appended to
+   */
+  public long endOffset() {
+    return endOffset;
+  }
+
+  /**
+   * Waits till there is a record at or after the specified offset,
+   * or the journal is closed, or the time is out.
+   *
+   * @param offset the offset to wait for
+   * @param timeout the max time to wait
+   * @param unit the unit of timeout
+   * @return true if there is a record to read
+   * @throws InterruptedException if current thread is interrupted while waiting
+   */
+  public synchronized boolean await(long offset, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (endOffset <= offset && !closed) {
+      long left = deadline - System.nanoTime();
+      if (left <= 0) {
+        break;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, left);
+    }
+    return endOffset > offset;
+  }
+
+  /**
+   * Creates a reader starting from the specified offset, a reader of an offset
+   * that is not retained any more starts from the oldest retained record.
+   *
+   * @param offset the offset of the first record to read
+   * @return the reader
+   * @throws IllegalArgumentException if the offset is beyond the end, or not
+   * the one of a record
+   */
+  public Reader reader(long offset) {
+    if (offset > endOffset) throw new IllegalArgumentException("offset beyond the end: " + offset);
+
+    Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+    if (entry != null) {
+      // The records below the end offset are complete, walks them to the offset.
+      ByteBuffer buffer = entry.getValue().buffer;
+      int target = (int) (offset - entry.getKey());
+      int pos = 0;
+      for (int length; pos < target && (length = lengthAt(buffer, pos)) >= 0; ) {
+        pos += HEADER + length;
+      }
+      if (pos != target)
+        throw new IllegalArgumentException("offset not on a record: " + offset);
+    }
+    return new Reader(offset);
+  }
+
+  /**
+   * Returns the committed offset of a reader key.
+   *
+   * @param key the reader key
+   * @return the committed offset, or -1 if there is no committed offset.
+   * @throws IOException if the offset can not be loaded
+   */
+  public long committed(String key) throws IOException {
+    MappedByteBuffer slot = offsets.get(key);
+    if (slot == null) {
+      File file = offsetFile(key);
+      if (!file.isFile()) {
+        return -1L;
+      }
+      slot = slotOf(key);
+    }
+    return slot.getLong(0);
+  }
+
+  /**
+   * Commits the offset of a reader key, which is usually the offset
+   * right after the last processed record.
+   *
+   * @param key the reader key
+   * @param offset the committed offset
+   * @throws IOException if the offset can not be stored
+   */
+  public void commit(String key, long offset) throws IOException {
+    MappedByteBuffer slot = offsets.get(key);
+    if (slot == null) {
+      slot = slotOf(key);
+    }
+    slot.putLong(0, offset);
+    if (force) {
+      slot.force();
+    }
+    expire();
+  }
+
+  private MappedByteBuffer slotOf(String key) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(offsetFile(key), "rw");
+    try {
+      MappedByteBuffer created = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+      MappedByteBuffer existing = offsets.putIfAbsent(key, created);
+      return existing == null ? created : existing;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private File offsetFile(String key) {
+    try {
+      return new File(offsetDirectory, URLEncoder.encode(key, "UTF-8") + OFFSET_SUFFIX);
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Flushes the records and the committed offsets to the storage device.
+   */
+  public synchronized void flush() {
+    active.buffer.force();
+    for (MappedByteBuffer slot : offsets.values()) {
+      slot.force();
+    }
+  }
+
+  /**
+   * Flushes and closes the journal, further appending is rejected.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * A sequential reader of the journal records.
+   */
+  public final class Reader {
+    private Segment segment;
+    private ByteBuffer view;
+    private long offset;
+    private final CRC32 crc = new CRC32();
+
+    private Reader(long offset) {
+      seek(offset);
+    }
+
+    private void seek(long offset) {
+      Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+      if (entry == null) {
+        entry = segments.firstEntry();
+        offset = entry.getKey();
+      }
+      this.segment = entry.getValue();
+      this.view = segment.buffer.duplicate();
+      this.offset = offset;
+    }
+
+    /**
+     * Returns the offset of next record to read.
+     *
+     * @return the offset of next record to read
+     */
+    public long position() {
+      return offset;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the next record, or null if there is no more record for now.
+     * @throws IOException if the record is corrupted
+     */
+    public byte[] next() throws IOException {
+      for (;;) {
+        if (offset >= endOffset) {
+          return null;
+        }
+        if (segment.base < startOffset()) {
+          // Fell behind the retention, skips to the oldest retained record.
+          seek(startOffset());
+          continue;
+        }
+        int pos = (int) (offset - segment.base);
+        if (pos + 4 > segmentBytes || view.getInt(pos) == END_OF_SEGMENT) {
+          seek(segment.base + segmentBytes);
+          continue;
+        }
+        int length = lengthAt(view, pos);
+        byte[] payload = length < 0 ? null : new byte[length];
+        if (payload == null || !read(view, pos, payload, length, crc)) {
+          throw new IOException("corrupted record at offset " + offset);
+        }
+        offset += HEADER + length;
+        return payload;
+      }
+    }
+  }
+
+  /** A mapped segment file. */
+  private static final class Segment {
+    final long base;
+    final File file;
+    final MappedByteBuffer buffer;
+    /** The time it is sealed at, or 0 if it is still active. */
+    volatile long sealedAt;
+
+    Segment(long base, File file, MappedByteBuffer buffer, long sealedAt) {
+      this.base = base;
+      this.file = file;
+      this.buffer = buffer;
+      this.sealedAt = sealedAt;
+    }
+  }
+
+  /**
+   * The builder of a {@code Journal}.
+   */
+  public static class Builder {
+    private File directory;
+    private int segmentBytes = 64 * 1024 * 1024;
+    private long retainBytes;
+    private long retainMillis;
+    private boolean force;
+
+    /**
+     * @param directory the directory holding the segments and committed offsets.
+     */
+    public Builder(File directory) {
+      if (directory == null) throw new NullPointerException("directory == null");
+      this.directory = directory;
+    }
+
+    /**
+     * @param bytes the size of a segment file, 64MB by default.
+     * @return this builder
+     */
+    public Builder segmentBytes(int bytes) {
+      if (bytes <= HEADER) throw new IllegalArgumentException("segment is too small");
+      this.segmentBytes = bytes;
+      return this;
+    }
+
+    /**
+     * @param bytes the max size of all segments, unlimited by default.
+     * @return this builder
+     */
+    public Builder retainBytes(long bytes) {
+      if (bytes < 0) throw new IllegalArgumentException("bytes < 0");
+      this.retainBytes = bytes;
+      return this;
+    }
+
+    /**
+     * @param age the max age of a sealed segment, unlimited by default.
+     * @param unit the unit of age
+     * @return this builder
+     */
+    public Builder retainAge(long age, TimeUnit unit) {
+      if (age < 0) throw new IllegalArgumentException("age < 0");
+      this.retainMillis = unit.toMillis(age);
+      return this;
+    }
+
+    /**
+     * @param force whether to flush every record to the storage device
+     * on appending, which survives the power loss but is much slower.
+     * @return this builder
+     */
+    public Builder force(boolean force) {
+      this.force = force;
+      return this;
+    }
+
+    /**
+     * Opens the journal and recovers the existing records.
+     *
+     * @return the journal
+     * @throws IOException if the segments can not be created or mapped
+     */
+    public Journal open() throws IOException {
+      return new Journal(this);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded mailbox that sits in front of a single {@linkplain Subscriber}.
+ * <p>
+ * Messages are queued by the dispatching thread and handed to the real 
+ * subscriber by a drain loop running on the drainer executor, so a slow
+ * subscriber only ever backs up its own mailbox. At most one drain loop 
+ * is active per mailbox, which keeps the delivery order of a subscriber.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the message type
+ */
+final class Mailbox<T> implements Subscriber<T>, Runnable {
+
+  private final String key;
+  private final Subscriber<T> subscriber;
+  private final BlockingQueue<T> queue;
+  private final int capacity;
+  private final Overflow overflow;
+  private final Executor drainer;
+
+  /** Whether a drain loop has been handed to the drainer and not finished yet. */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final SubscriberMetrics metrics;
+  private final AtomicLong dropped = new AtomicLong();
+
+  Mailbox(String key, Subscriber<T> subscriber, int capacity, Overflow overflow, 
+      Executor drainer, SubscriberMetrics metrics) {
+    this.key = key;
+    this.subscriber = subscriber;
+    this.queue = new ArrayBlockingQueue<T>(capacity);
+    this.capacity = capacity;
+    this.overflow = overflow;
+    this.drainer = drainer;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Queues the message with respect of the overflow policy,
+   * and makes sure there is a drain loop to deliver it.
+   */
+  @Override
+  public void notify(T t) {
+    switch (overflow) {
+    case DROP_LATEST:
+      if (!queue.offer(t)) {
+        dropped.incrementAndGet();
+        return;
+      }
+      break;
+    case DROP_OLDEST:
+      while (!queue.offer(t)) {
+        if (queue.poll() != null) dropped.incrementAndGet();
+      }
+      break;
+    case BLOCK:
+      try {
+        queue.put(t);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        dropped.incrementAndGet();
+        return;
+      }
+      break;
+    }
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      drainer.execute(this);
+    }
+  }
+
+  /**
+   * The drain loop, it delivers the queued messages till the mailbox is empty.
+   */
+  @Override
+  public void run() {
+    for (;;) {
+      T t;
+      while ((t = queue.poll()) != null) {
+        long start = System.nanoTime();
+        try {
+          subscriber.notify(t);
+          metrics.notify.record(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+          /*
+           * A failed delivery must not stop the drain loop, otherwise the 
+           * mailbox stays 'scheduled' forever and nothing is delivered anymore.
+           */
+          metrics.failures.incrementAndGet();
+          Thread current = Thread.currentThread();
+          current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        }
+      }
+      scheduled.set(false);
+      /*
+       * Re-checks the queue since a message might be queued right after the 
+       * last poll and before the flag reset, whose schedule attempt has failed.
+       */
+      if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  MailboxStats stats() {
+    return new MailboxStats(key, capacity, queue.size(), 
+        metrics.notify.count(), dropped.get(), metrics.failures.get());
+  }
+}
@@ -0,0 +1,62 @@
+package io.harborl.solid.toys.dispatch;
+
+/**
+ * An immutable point-in-time snapshot of a subscriber mailbox metrics.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class MailboxStats {
+
+  private final String key;
+  private final int capacity;
+  private final int depth;
+  private final long delivered;
+  private final long dropped;
+  private final long failed;
+
+  MailboxStats(String key, int capacity, int depth, long delivered, long dropped, long failed) {
+    this.key = key;
+    this.capacity = capacity;
+    this.depth = depth;
+    this.delivered = delivered;
+    this.dropped = dropped;
+    this.failed = failed;
+  }
+
+  /** @return the identity of the subscriber */
+  public String getKey() {
+    return key;
+  }
+
+  /** @return the max number of messages the mailbox can hold */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** @return the number of messages waiting in the mailbox */
+  public int getDepth() {
+    return depth;
+  }
+
+  /** @return the number of messages delivered to the subscriber */
+  public long getDelivered() {
+    return delivered;
+  }
+
+  /** @return the number of messages discarded by the overflow policy */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /** @return the number of exceptions thrown by the filter or the subscriber */
+  public long getFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return "MailboxStats [key=" + key + ", capacity=" + capacity + ", depth=" + depth
+        + ", delivered=" + delivered + ", dropped=" + dropped + ", failed=" + failed + "]";
+  }
+}
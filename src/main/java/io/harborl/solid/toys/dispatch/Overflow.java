@@ -0,0 +1,17 @@
+package io.harborl.solid.toys.dispatch;
+
+/**
+ * The overflow policies of a bounded subscriber mailbox, which decide what
+ * happens to an incoming message when the mailbox of a slow subscriber is full.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public enum Overflow {
+  /** Discards the incoming message and keeps the queued ones. */
+  DROP_LATEST,
+  /** Evicts the oldest queued message to make room for the incoming one. */
+  DROP_OLDEST,
+  /** Blocks the dispatching thread till the mailbox has room again. */
+  BLOCK
+}
@@ -0,0 +1,28 @@
+package io.harborl.solid.toys.dispatch;
+
+/**
+ * A {@code Serializer} converts the dispatching messages from and to bytes, 
+ * so that they can be persisted or sent out of current process.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the message type
+ */
+public interface Serializer<T> {
+  /**
+   * Converts a message to bytes.
+   * 
+   * @param t the message
+   * @return the bytes of the message
+   */
+  byte[] serialize(T t);
+
+  /**
+   * Converts the bytes back to a message.
+   * 
+   * @param bytes the bytes of a message
+   * @return the message
+   */
+  T deserialize(byte[] bytes);
+}
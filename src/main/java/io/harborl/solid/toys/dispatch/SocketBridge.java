@@ -0,0 +1,305 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@code SocketBridge} is a {@linkplain Subscriber} that forwards the messages
+ * to a {@linkplain BridgeReceiver} of another process on the same host, so that
+ * the subscribers living there can be registered with a local {@linkplain Dispatch}.
+ * <p>
+ * Messages are framed as <tt>[length][payload]</tt> and queued in a bounded outbound
+ * queue, which is drained by a single non-blocking I/O thread that batches as many
+ * frames as possible into one socket write. When the receiver does not keep up,
+ * the socket buffer fills, the queue backs up, and the {@linkplain Overflow} policy
+ * decides what happens to the further messages. The connection is re-established
+ * on failure, the frames of a broken batch are lost.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * SocketBridge<String> bridge =
+ *     SocketBridge.connect(port, Utf8Serializer.INSTANCE, 8192, Overflow.DROP_OLDEST);
+ * dispatch.register(bridge, filter, "sidecar");
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the message type
+ */
+public final class SocketBridge<T> implements Subscriber<T> {
+
+  /** The size of a write batch. */
+  private static final int BATCH_BYTES = 64 * 1024;
+
+  /** The max pause between two connecting attempts. */
+  private static final long MAX_BACKOFF_MILLIS = 5000L;
+
+  private final InetSocketAddress address;
+  private final Serializer<T> serializer;
+  private final BlockingQueue<byte[]> queue;
+  private final Overflow overflow;
+  private final Selector selector;
+  private final Thread io;
+
+  /** Whether the I/O thread is blocked in select and needs a wakeup for new frames. */
+  private final AtomicBoolean idle = new AtomicBoolean();
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile boolean closed;
+
+  // Confined to the I/O thread
+  private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+  private int batchFrames;
+  private ByteBuffer oversize;
+  /** A frame taken from the queue that did not fit the last batch. */
+  private byte[] carried;
+  private SocketChannel channel;
+
+  private SocketBridge(InetSocketAddress address, Serializer<T> serializer,
+      int capacity, Overflow overflow) throws IOException {
+    this.address = address;
+    this.serializer = serializer;
+    this.queue = new ArrayBlockingQueue<byte[]>(capacity);
+    this.overflow = overflow;
+    this.selector = Selector.open();
+    this.batch.flip(); // starts with an empty batch in read mode
+    this.io = new Thread(new Runnable() {
+      @Override public void run() {
+        loop();
+      }
+    }, "[SocketBridge] - io - " + address);
+    this.io.setDaemon(true);
+    this.io.start();
+  }
+
+  /**
+   * Creates a bridge to the receiver listening on a local port.
+   *
+   * @param port the port of the receiver on the loop-back address
+   * @param serializer the serializer of messages
+   * @param capacity the max number of messages waiting to be sent
+   * @param overflow the policy applied when the outbound queue is full
+   * @return the bridge instance
+   * @throws IOException if the selector can not be opened
+   *
+   * @param <T> the message type
+   */
+  public static <T> SocketBridge<T> connect(int port, Serializer<T> serializer,
+      int capacity, Overflow overflow) throws IOException {
+    if (serializer == null || overflow == null) throw new NullPointerException();
+    if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(null), port);
+    return new SocketBridge<T>(address, serializer, capacity, overflow);
+  }
+
+  /**
+   * Queues the message to be sent with respect of the overflow policy.
+   */
+  @Override
+  public void notify(T t) {
+    if (closed) {
+      dropped.incrementAndGet();
+      return;
+    }
+    byte[] frame = serializer.serialize(t);
+    switch (overflow) {
+    case DROP_LATEST:
+      if (!queue.offer(frame)) {
+        dropped.incrementAndGet();
+        return;
+      }
+      break;
+    case DROP_OLDEST:
+      while (!queue.offer(frame)) {
+        if (queue.poll() != null) dropped.incrementAndGet();
+      }
+      break;
+    case BLOCK:
+      try {
+        queue.put(frame);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        dropped.incrementAndGet();
+        return;
+      }
+      break;
+    }
+    if (idle.compareAndSet(true, false)) {
+      selector.wakeup();
+    }
+  }
+
+  /** @return the number of messages written to the socket */
+  public long sent() {
+    return sent.get();
+  }
+
+  /** @return the number of messages discarded by the overflow policy or a broken connection */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Stops the I/O thread and closes the connection, the queued messages are discarded.
+   */
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    try {
+      io.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void loop() {
+    long backoff = 0L;
+    try {
+      while (!closed) {
+        try {
+          if (channel == null) {
+            connect();
+          }
+          if (flush()) {
+            // The socket buffer is full, waits till it is writable again.
+            channel.register(selector, SelectionKey.OP_WRITE);
+            selector.select();
+            selector.selectedKeys().clear();
+          } else if (queue.isEmpty()) {
+            idle.set(true);
+            // Re-checks since a frame might be queued before the flag is set.
+            if (queue.isEmpty()) {
+              channel.register(selector, 0);
+              selector.select();
+              selector.selectedKeys().clear();
+            }
+            idle.set(false);
+          }
+          backoff = 0L;
+        } catch (IOException e) {
+          disconnect();
+          backoff = Math.min(MAX_BACKOFF_MILLIS, Math.max(100L, backoff * 2));
+          Thread.sleep(backoff);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      disconnect();
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+      queue.clear();
+      carried = null;
+    }
+  }
+
+  private void connect() throws IOException {
+    SocketChannel created = SocketChannel.open();
+    try {
+      // Connecting to the loop-back address is quick, it blocks just once here.
+      created.connect(address);
+      created.socket().setTcpNoDelay(true);
+      created.configureBlocking(false);
+      channel = created;
+    } finally {
+      if (channel != created) {
+        created.close();
+      }
+    }
+  }
+
+  private void disconnect() {
+    if (channel == null) {
+      return;
+    }
+    // A partially written batch can not be resumed on a new connection.
+    dropped.addAndGet(batchFrames);
+    batchFrames = 0;
+    batch.clear().flip();
+    oversize = null;
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    } finally {
+      channel = null;
+    }
+  }
+
+  /**
+   * Writes the pending batch and the queued frames as long as the socket accepts.
+   *
+   * @return true if there is still something to write but the socket is full.
+   */
+  private boolean flush() throws IOException {
+    for (;;) {
+      ByteBuffer pending = oversize != null ? oversize : batch;
+      if (pending.hasRemaining()) {
+        channel.write(pending);
+        if (pending.hasRemaining()) {
+          return true;
+        }
+        sent.addAndGet(batchFrames);
+        batchFrames = 0;
+        oversize = null;
+      }
+      if (!fill()) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Moves the queued frames into the batch buffer. A frame is taken from the 
+   * queue before it is sized, since a producer dropping the oldest frame may 
+   * take the head away at any time, and the one not fitting is carried over 
+   * to the next batch.
+   *
+   * @return true if there is something to write.
+   */
+  private boolean fill() {
+    batch.clear();
+    for (;;) {
+      byte[] frame = carried;
+      carried = null;
+      if (frame == null && (frame = queue.poll()) == null) {
+        break;
+      }
+      int size = 4 + frame.length;
+      if (size > batch.capacity()) {
+        if (batchFrames > 0) {
+          carried = frame;
+          break;
+        }
+        // Sends an oversize frame on its own.
+        oversize = ByteBuffer.allocate(size);
+        oversize.putInt(frame.length).put(frame).flip();
+        batchFrames = 1;
+        batch.flip();
+        return true;
+      }
+      if (size > batch.remaining()) {
+        carried = frame;
+        break;
+      }
+      batch.putInt(frame.length).put(frame);
+      batchFrames++;
+    }
+    batch.flip();
+    return batch.hasRemaining();
+  }
+}
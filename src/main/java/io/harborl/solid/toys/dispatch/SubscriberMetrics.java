@@ -0,0 +1,27 @@
+package io.harborl.solid.toys.dispatch;
+
+import io.harborl.solid.toys.profiling.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live delivery metrics of a subscriber.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class SubscriberMetrics {
+
+  /** The time costs of the filter evaluations. */
+  final LatencyHistogram filter = new LatencyHistogram();
+
+  /** The time costs of the succeeded notifications. */
+  final LatencyHistogram notify = new LatencyHistogram();
+
+  /** The number of exceptions thrown by the filter or the subscriber. */
+  final AtomicLong failures = new AtomicLong();
+
+  SubscriberStats stats(String key, MailboxStats mailbox) {
+    return new SubscriberStats(key, filter.snapshot(), notify.snapshot(), failures.get(), mailbox);
+  }
+}
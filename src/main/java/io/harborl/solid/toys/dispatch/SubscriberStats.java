@@ -0,0 +1,64 @@
+package io.harborl.solid.toys.dispatch;
+
+import io.harborl.solid.toys.profiling.LatencyHistogram;
+
+/**
+ * An immutable point-in-time snapshot of the delivery metrics of a subscriber.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class SubscriberStats {
+
+  private final String key;
+  private final LatencyHistogram.Snapshot filter;
+  private final LatencyHistogram.Snapshot notify;
+  private final long failures;
+  private final MailboxStats mailbox;
+
+  SubscriberStats(String key, LatencyHistogram.Snapshot filter, 
+      LatencyHistogram.Snapshot notify, long failures, MailboxStats mailbox) {
+    this.key = key;
+    this.filter = filter;
+    this.notify = notify;
+    this.failures = failures;
+    this.mailbox = mailbox;
+  }
+
+  /** @return the identity of the subscriber */
+  public String getKey() {
+    return key;
+  }
+
+  /** @return the number of messages delivered to the subscriber */
+  public long getDelivered() {
+    return notify.getCount();
+  }
+
+  /** @return the number of exceptions thrown by the filter or the subscriber */
+  public long getFailures() {
+    return failures;
+  }
+
+  /** @return the time costs of the filter evaluations */
+  public LatencyHistogram.Snapshot getFilter() {
+    return filter;
+  }
+
+  /** @return the time costs of the succeeded notifications */
+  public LatencyHistogram.Snapshot getNotify() {
+    return notify;
+  }
+
+  /** @return the mailbox metrics, or null if the subscriber is not isolated */
+  public MailboxStats getMailbox() {
+    return mailbox;
+  }
+
+  @Override
+  public String toString() {
+    return "SubscriberStats [key=" + key + ", delivered=" + getDelivered() 
+        + ", failures=" + failures + ", filter={" + filter + "}, notify={" + notify + "}"
+        + (mailbox == null ? "" : ", mailbox=" + mailbox) + "]";
+  }
+}
@@ -3,10 +3,30 @@ package io.harborl.solid.toys.dispatch;
 import io.harborl.solid.toys.filter.Condition;
 import io.harborl.solid.toys.filter.Filter;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
 
 public class Test {
   
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException, InterruptedException, JMException {
     /* ----------------------------------------------------------------------
      * Preparation : Registers subscriber and its filter with a unique key.
      * ----------------------------------------------------------------------
@@ -57,6 +77,312 @@ public class Test {
      * ----------------------------------------------------------------------
      */
     dispatch.dismiss();
+
+    allocation();
+    nulls();
+    failures();
+    isolation(Overflow.BLOCK);
+    isolation(Overflow.DROP_LATEST);
+    isolation(Overflow.DROP_OLDEST);
+    durable();
+    bridge(Overflow.BLOCK);
+    bridge(Overflow.DROP_OLDEST);
+  }
+
+  private static final Filter<String> ALL = new Filter<String>() {
+    @Override public boolean test(String t) { return true; }
+  };
+
+  /* ----------------------------------------------------------------------
+   * Nulls : Delivers a null message to the subscribers accepting it.
+   * ----------------------------------------------------------------------
+   */
+  private static void nulls() {
+    final AtomicInteger notified = new AtomicInteger();
+    Dispatch<String, String> dispatch = ConcurrentDispatch.valueOf(1);
+    dispatch.register(new Subscriber<String>() {
+      @Override public void notify(String t) { notified.incrementAndGet(); }
+    }, new Filter<String>() {
+      @Override public boolean test(String t) { return t == null; }
+    }, "nulls");
+    dispatch.dispatch(null);
+    dispatch.dismiss();
+    if (notified.get() != 1) {
+      throw new AssertionError("null message notified " + notified.get() + " times");
+    }
+    System.out.println("[Nulls] null message delivered");
+  }
+
+  /* ----------------------------------------------------------------------
+   * Failures : A throwing subscriber is counted, the ones after it still notified.
+   * ----------------------------------------------------------------------
+   */
+  private static void failures() throws InterruptedException, JMException {
+    final AtomicInteger reported = new AtomicInteger();
+    final AtomicInteger notified = new AtomicInteger();
+    Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override public void uncaughtException(Thread t, Throwable e) { reported.incrementAndGet(); }
+    });
+
+    ConcurrentDispatch<String> dispatch = ConcurrentDispatch.valueOf(2);
+    dispatch.register(new Subscriber<String>() {
+      @Override public void notify(String t) { throw new IllegalStateException(t); }
+    }, ALL, "throwing");
+    dispatch.register(new Subscriber<String>() {
+      @Override public void notify(String t) { notified.incrementAndGet(); }
+    }, ALL, "after");
+    dispatch.expose("failures");
+
+    final int total = 100;
+    for (int i = 0; i < total; i++) {
+      dispatch.dispatch("[ERROR] " + i);
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (dispatch.stats().getSubscribers().get("after").getDelivered() < total
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    DispatchStats stats = dispatch.stats();
+    SubscriberStats throwing = stats.getSubscribers().get("throwing");
+    SubscriberStats after = stats.getSubscribers().get("after");
+    if (notified.get() != total || after.getDelivered() != total) {
+      throw new AssertionError("the subscriber after a throwing one got " + notified.get());
+    }
+    if (throwing.getFailures() != total || reported.get() != total || throwing.getDelivered() != 0) {
+      throw new AssertionError("failures " + throwing.getFailures() + ", reported " + reported.get());
+    }
+
+    // The same figures are read through JMX.
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(
+        "io.harborl.solid.toys.dispatch:type=ConcurrentDispatch,name=" + ObjectName.quote("failures"));
+    TabularData subscribers = (TabularData) server.getAttribute(name, "Subscribers");
+    CompositeData live = (CompositeData) subscribers.get(new Object[] { "throwing" }).get("value");
+    long callerRuns = (Long) server.getAttribute(name, "CallerRuns");
+    if ((Long) live.get("failures") != throwing.getFailures()
+        || (Long) live.get("delivered") != throwing.getDelivered()
+        || callerRuns != stats.getCallerRuns()) {
+      throw new AssertionError("JMX " + live + ", caller runs " + callerRuns + " differ from " + stats);
+    }
+
+    dispatch.dismiss();
+    Thread.setDefaultUncaughtExceptionHandler(handler);
+    if (server.isRegistered(name)) {
+      throw new AssertionError(name + " is still registered after dismiss");
+    }
+    System.out.println("[Failures] " + throwing.getFailures() + " failures counted, "
+        + notified.get() + " notified after them");
+  }
+
+  /* ----------------------------------------------------------------------
+   * Isolation : A slow subscriber backs up only its own mailbox.
+   * ----------------------------------------------------------------------
+   */
+  private static void isolation(Overflow overflow) throws InterruptedException {
+    final List<Integer> fast = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> slow = Collections.synchronizedList(new ArrayList<Integer>());
+    ConcurrentDispatch<Integer> dispatch = ConcurrentDispatch.isolated(2, 16, overflow);
+    Filter<Integer> all = new Filter<Integer>() {
+      @Override public boolean test(Integer t) { return true; }
+    };
+    dispatch.register(new Subscriber<Integer>() {
+      @Override public void notify(Integer t) { fast.add(t); }
+    }, all, "fast");
+    dispatch.register(new Subscriber<Integer>() {
+      @Override public void notify(Integer t) {
+        slow.add(t);
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, all, "slow");
+
+    // Paced for the fast subscriber, but several times faster than the slow one.
+    final int total = 1000;
+    for (int i = 0; i < total; i++) {
+      dispatch.dispatch(i);
+      if (i % 4 == 3) {
+        Thread.sleep(1);
+      }
+    }
+    long deadline = System.currentTimeMillis() + 30000;
+    MailboxStats stats = dispatch.mailboxStats().get("slow");
+    while ((fast.size() < total || stats.getDepth() > 0 || stats.getDelivered() < slow.size())
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      stats = dispatch.mailboxStats().get("slow");
+    }
+    dispatch.dismiss();
+
+    if (fast.size() != total) {
+      throw new AssertionError(overflow + ": the fast subscriber got " + fast.size());
+    }
+    if (stats.getDelivered() != slow.size() || slow.size() + stats.getDropped() != total) {
+      throw new AssertionError(overflow + ": slow " + stats + ", received " + slow.size());
+    }
+    boolean dropped = stats.getDropped() > 0;
+    if (overflow == Overflow.BLOCK ? dropped : !dropped) {
+      throw new AssertionError(overflow + ": dropped " + stats.getDropped());
+    }
+    Integer kept = overflow == Overflow.DROP_LATEST ? 0 : total - 1;
+    if (!slow.contains(kept)) {
+      throw new AssertionError(overflow + ": message " + kept + " is dropped");
+    }
+    System.out.println("[Isolation] " + overflow + ": slow received " + slow.size()
+        + ", dropped " + stats.getDropped());
+  }
+
+  /* ----------------------------------------------------------------------
+   * Durable : Replays the journal after a restart.
+   * ----------------------------------------------------------------------
+   */
+  private static void durable() throws IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    List<String> sent = Arrays.asList("[INFO] one", "", "[INFO] three");
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    Subscriber<String> collector = new Subscriber<String>() {
+      @Override public void notify(String t) { received.add(t); }
+    };
+
+    DurableDispatch<String> dispatch = DurableDispatch.valueOf(
+        new Journal.Builder(directory).segmentBytes(64).open(), Utf8Serializer.INSTANCE);
+    dispatch.register(collector, ALL, "early");
+    for (String message : sent) {
+      dispatch.dispatch(message);
+    }
+    dispatch.dismiss();
+    check("delivered before restart", sent, received);
+
+    // The early subscriber resumes after its committed offset, a late one replays all.
+    received.clear();
+    Journal journal = new Journal.Builder(directory).segmentBytes(64).open();
+    try {
+      journal.reader(journal.startOffset() + 1);
+      throw new AssertionError("a reader inside a record is created");
+    } catch (IllegalArgumentException expected) {
+      // Not on a record.
+    }
+    dispatch = DurableDispatch.valueOf(journal, Utf8Serializer.INSTANCE);
+    dispatch.register(collector, ALL, "early");
+    dispatch.register(collector, ALL, "late");
+    dispatch.dismiss();
+    check("replayed after restart", sent, received);
+
+    for (File file : directory.listFiles()) {
+      if (file.isDirectory()) {
+        for (File offset : file.listFiles()) offset.delete();
+      }
+      file.delete();
+    }
+    directory.delete();
+    System.out.println("[Durable] " + received.size() + " messages replayed after restart");
+  }
+
+  /* ----------------------------------------------------------------------
+   * Bridge : Forwards messages over the loop-back to a slow local dispatch.
+   * ----------------------------------------------------------------------
+   */
+  private static void bridge(Overflow overflow) throws IOException, InterruptedException {
+    final Set<String> received = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final AtomicInteger duplicates = new AtomicInteger();
+    Dispatch<String, String> local = ConcurrentDispatch.valueOf(1);
+    local.register(new Subscriber<String>() {
+      @Override public void notify(String t) {
+        if (!received.add(t)) duplicates.incrementAndGet();
+        if (received.size() % 1000 == 0) {
+          try {
+            Thread.sleep(1); // slower than the sender, so the outbound queue fills up
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }, ALL, "slow");
+
+    BridgeReceiver<String> receiver = BridgeReceiver.listen(0, Utf8Serializer.INSTANCE, local);
+    SocketBridge<String> bridge =
+        SocketBridge.connect(receiver.port(), Utf8Serializer.INSTANCE, 64, overflow);
+    final int total = 200000;
+    for (int i = 0; i < total; i++) {
+      bridge.notify(Integer.toString(i));
+    }
+    long deadline = System.currentTimeMillis() + 30000;
+    while ((bridge.sent() + bridge.dropped() < total || received.size() < bridge.sent())
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    bridge.close();
+    receiver.close();
+    local.dismiss();
+
+    if (bridge.sent() + bridge.dropped() != total || received.size() != bridge.sent()
+        || duplicates.get() != 0) {
+      throw new AssertionError(overflow + ": sent " + bridge.sent() + ", dropped "
+          + bridge.dropped() + ", received " + received.size() + ", duplicates " + duplicates.get());
+    }
+    if (!received.contains(Integer.toString(total - 1))) {
+      throw new AssertionError(overflow + ": the latest message is lost");
+    }
+    System.out.println("[Bridge] " + overflow + ": received " + received.size()
+        + ", dropped " + bridge.dropped());
+  }
+
+  private static void check(String what, List<String> expected, List<String> actual) {
+    List<String> sorted = new ArrayList<String>(actual);
+    List<String> wanted = new ArrayList<String>(expected);
+    Collections.sort(sorted);
+    Collections.sort(wanted);
+    if (!sorted.equals(wanted)) {
+      throw new AssertionError(what + ": expected " + expected + ", but " + actual);
+    }
+  }
+
+  /* ----------------------------------------------------------------------
+   * Allocation : Verifies the dispatch path does not allocate in steady state.
+   * ----------------------------------------------------------------------
+   */
+  private static void allocation() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      System.out.println("[Allocation] thread allocation counter is not supported");
+      return;
+    }
+    com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+
+    // A single thread level makes most of the messages be delivered by this thread.
+    Dispatch<Long, String> dispatch = ConcurrentDispatch.valueOf(1);
+    final AtomicLong sum = new AtomicLong();
+    for (int i = 0; i < 8; i++) {
+      dispatch.register(new Subscriber<Long>() {
+        @Override public void notify(Long t) { sum.addAndGet(t); }
+      }, new Filter<Long>() {
+        @Override public boolean test(Long t) { return (t & 1) == 0; }
+      }, "sub-" + i);
+    }
+
+    final int rounds = 1000000;
+    final Long message = Long.valueOf(2);
+    for (int i = 0; i < rounds; i++) {
+      dispatch.dispatch(message); // warm up
+    }
+
+    long tid = Thread.currentThread().getId();
+    long before = counter.getThreadAllocatedBytes(tid);
+    for (int i = 0; i < rounds; i++) {
+      dispatch.dispatch(message);
+    }
+    long allocated = counter.getThreadAllocatedBytes(tid) - before;
+    dispatch.dismiss();
+
+    double perDispatch = (double) allocated / rounds;
+    if (perDispatch >= 1) {
+      throw new AssertionError("allocated " + perDispatch + " bytes per dispatch");
+    }
+    System.out.printf("[Allocation] %.3f bytes per dispatch%n", perDispatch);
   }
 
 }
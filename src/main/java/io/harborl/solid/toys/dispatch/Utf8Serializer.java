@@ -0,0 +1,27 @@
+package io.harborl.solid.toys.dispatch;
+
+import java.nio.charset.Charset;
+
+/**
+ * A {@linkplain Serializer} of text messages with UTF-8 encoding.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public enum Utf8Serializer implements Serializer<String> {
+  INSTANCE;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private Utf8Serializer() { }
+
+  @Override
+  public byte[] serialize(String t) {
+    return t.getBytes(UTF8);
+  }
+
+  @Override
+  public String deserialize(byte[] bytes) {
+    return new String(bytes, UTF8);
+  }
+}
@@ -0,0 +1,214 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A compiled {@linkplain Condition} chain that reorders its clauses by observation.
+ * <p>
+ * One of every {@value #SAMPLE_PERIOD} tests is measured, which records the time
+ * cost and the result of every evaluated clause. After every {@value #REORDER_PERIOD}
+ * measured tests, the clauses of every run of the same operator are sorted by
+ * their rank and a new {@linkplain Program} is swapped in:
+ * <ul>
+ *   <li>in an {@code and} run, <tt>cost / fail rate</tt>, the cheap clause that is
+ *   likely {@code false} goes first.</li>
+ *   <li>in an {@code or} run, <tt>cost / pass rate</tt>, the cheap clause that is
+ *   likely {@code true} goes first.</li>
+ * </ul>
+ * A pinned clause keeps its place and splits the run, so that no clause is moved
+ * across it. A clause that has not been measured yet keeps its place as well.
+ * <p>
+ * The observations are updated without synchronization, a lost update just makes
+ * the ranks a bit less accurate, which never affects the test results.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the test term type
+ */
+final class AdaptiveProgram<T> implements Filter<T> {
+
+  /** The period of measured tests, must be a power of two. */
+  static final int SAMPLE_PERIOD = 64;
+
+  /** The number of measured tests between two reorderings. */
+  static final int REORDER_PERIOD = 1024;
+
+  private final Filter<T>[] clauses;
+  private final boolean[] or;
+  private final boolean[] pinned;
+  /** The run index of every position, the header belongs to the run after it. */
+  private final int[] runs;
+  private final Observation[] observations;
+
+  /** The current order of clauses and its program. */
+  private volatile Layout<T> layout;
+
+  // Racy counters, see the class comment.
+  private int tests;
+  private int measured;
+
+  AdaptiveProgram(Filter<T>[] clauses, boolean[] or, boolean[] pinned) {
+    this.clauses = clauses;
+    this.or = or;
+    this.pinned = pinned;
+    this.runs = new int[clauses.length];
+    for (int i = 2; i < clauses.length; i++) {
+      runs[i] = or[i] == or[i - 1] ? runs[i - 1] : runs[i - 1] + 1;
+    }
+    this.observations = new Observation[clauses.length];
+    int[] order = new int[clauses.length];
+    for (int i = 0; i < clauses.length; i++) {
+      observations[i] = new Observation();
+      order[i] = i;
+    }
+    this.layout = layout(order);
+  }
+
+  private Layout<T> layout(int[] order) {
+    @SuppressWarnings("unchecked")
+    Filter<T>[] ordered = (Filter<T>[]) new Filter<?>[order.length];
+    for (int i = 0; i < order.length; i++) {
+      ordered[i] = clauses[order[i]];
+    }
+    return new Layout<T>(order, new Program<T>(ordered, or));
+  }
+
+  /** Returns the current order, the chain index of the clause at every position. */
+  int[] order() {
+    return layout.order.clone();
+  }
+
+  @Override public boolean test(T t) {
+    Layout<T> current = layout;
+    if ((++tests & (SAMPLE_PERIOD - 1)) != 0) {
+      return current.program.test(t);
+    }
+    boolean result = measure(current.order, t);
+    if (++measured % REORDER_PERIOD == 0) {
+      layout = layout(reorder(current.order));
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates like a {@linkplain Program} does, and records every evaluated clause.
+   */
+  private boolean measure(int[] order, T t) {
+    boolean result = false;
+    for (int i = 0; i < order.length; i++) {
+      if (i > 0 && result == or[i]) {
+        continue; // decided already
+      }
+      int clause = order[i];
+      long start = System.nanoTime();
+      result = clauses[clause].test(t);
+      observations[clause].record(System.nanoTime() - start, result);
+    }
+    return result;
+  }
+
+  /**
+   * Sorts the movable clauses of every run by their ranks.
+   */
+  private int[] reorder(int[] current) {
+    final int n = current.length;
+    int[] order = current.clone();
+    final double[] ranks = new double[clauses.length];
+    for (int i = 0; i < n; i++) {
+      int clause = order[i];
+      ranks[clause] = observations[clause].rank(runIsOr(i));
+      observations[clause].decay();
+    }
+
+    int from = 0;
+    while (from < n) {
+      if (!movable(order[from], ranks)) {
+        from++;
+        continue;
+      }
+      // The segment of movable clauses in the same run.
+      int to = from + 1;
+      while (to < n && runs[to] == runs[from] && movable(order[to], ranks)) {
+        to++;
+      }
+      sort(order, from, to, ranks);
+      from = to;
+    }
+    return order;
+  }
+
+  /** The header belongs to the run of the clause after it. */
+  private boolean runIsOr(int index) {
+    return or.length > 1 && or[index == 0 ? 1 : index];
+  }
+
+  private boolean movable(int clause, double[] ranks) {
+    return !pinned[clause] && !Double.isNaN(ranks[clause]);
+  }
+
+  private static void sort(int[] order, int from, int to, final double[] ranks) {
+    if (to - from < 2) {
+      return;
+    }
+    Integer[] segment = new Integer[to - from];
+    for (int i = from; i < to; i++) {
+      segment[i - from] = order[i];
+    }
+    Arrays.sort(segment, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Double.compare(ranks[a], ranks[b]);
+      }
+    });
+    for (int i = from; i < to; i++) {
+      order[i] = segment[i - from];
+    }
+  }
+
+  /** The observed cost and pass rate of a clause. */
+  private static final class Observation {
+    // Racy fields, see the class comment.
+    long evaluations;
+    long passes;
+    long nanos;
+
+    void record(long cost, boolean passed) {
+      evaluations++;
+      nanos += cost;
+      if (passed) passes++;
+    }
+
+    /**
+     * @return the expected cost to decide the run, or NaN if not measured.
+     */
+    double rank(boolean orRun) {
+      long evaluations = this.evaluations;
+      if (evaluations == 0) {
+        return Double.NaN;
+      }
+      double cost = (double) nanos / evaluations;
+      double passRate = (double) passes / evaluations;
+      double decisive = orRun ? passRate : 1 - passRate;
+      return cost / Math.max(decisive, 1e-3);
+    }
+
+    /** Halves the observations, so that the recent ones weigh more. */
+    void decay() {
+      evaluations >>= 1;
+      passes >>= 1;
+      nanos >>= 1;
+    }
+  }
+
+  /** An immutable order of clauses with its compiled program. */
+  private static final class Layout<T> {
+    final int[] order;
+    final Program<T> program;
+
+    Layout(int[] order, Program<T> program) {
+      this.order = order;
+      this.program = program;
+    }
+  }
+}
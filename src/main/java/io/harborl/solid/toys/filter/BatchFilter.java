@@ -0,0 +1,33 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * A {@linkplain Filter} that can also test a block of terms at once, 
+ * which saves a call per term and lets a condition combine the results 
+ * of its clauses with bitwise operations.
+ * <p>
+ * The results are written into a selection bitmap, the bit <tt>i</tt> of 
+ * <tt>selection[i &gt;&gt;&gt; 6]</tt> is set if and only if the term 
+ * <tt>terms[from + i]</tt> passes. The first <tt>(to - from + 63) / 64</tt> 
+ * words are overwritten and the bits past the block are cleared.
+ * <p>
+ * A clause of a {@linkplain Condition} is given a block only while none of its
+ * terms is decided by the clauses before, otherwise it tests the undecided terms
+ * one by one, so that it never sees a term the chain short-circuits.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the test term type
+ */
+public interface BatchFilter<T> extends Filter<T> {
+
+  /**
+   * Tests the terms in range <tt>[from, to)</tt>.
+   * 
+   * @param terms the evaluated terms
+   * @param from the first index, inclusive
+   * @param to the last index, exclusive
+   * @param selection the target bitmap
+   */
+  void testBatch(T[] terms, int from, int to, long[] selection);
+}
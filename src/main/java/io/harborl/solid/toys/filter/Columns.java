@@ -0,0 +1,502 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * The column filters of primitive values, which implement the batch forms with
+ * tight branch-free loops over the columns, the kind of loops the JIT compiles
+ * best. Combined in a condition, like {@linkplain IntCondition}, a column is
+ * filtered by bitwise operations over the selection bitmaps.
+ * <p>
+ * The column filters are free of side effects and defined for every value, so
+ * a condition tests a column with them as a whole even after some of its rows
+ * are decided by the clauses before.
+ * <p>
+ * The filters of different columns of the same rows are combined with 
+ * {@linkplain #and(long[], long[])} and {@linkplain #or(long[], long[])}.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * long[] selection = new long[(rows + 63) / 64];
+ * IntCondition.newInstance(Columns.between(18, 65)).testBatch(ages, 0, rows, selection);
+ * long[] rich = new long[selection.length];
+ * Columns.greaterThan(1e6).testBatch(incomes, 0, rows, rich);
+ * Columns.and(selection, rich);
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class Columns {
+
+  private Columns() { }
+
+  /**
+   * Keeps the bits set in both bitmaps.
+   *
+   * @param target the bitmap updated in place
+   * @param other the other bitmap, as long as the target at least
+   */
+  public static void and(long[] target, long[] other) {
+    for (int w = 0; w < target.length; w++) {
+      target[w] &= other[w];
+    }
+  }
+
+  /**
+   * Keeps the bits set in either bitmap.
+   *
+   * @param target the bitmap updated in place
+   * @param other the other bitmap, as long as the target at least
+   */
+  public static void or(long[] target, long[] other) {
+    for (int w = 0; w < target.length; w++) {
+      target[w] |= other[w];
+    }
+  }
+
+  /**
+   * Returns a filter passing the values greater than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static IntBatchFilter greaterThan(int bound) {
+    return new IntGreaterThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values less than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static IntBatchFilter lessThan(int bound) {
+    return new IntLessThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values equal to the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static IntBatchFilter equalTo(int bound) {
+    return new IntEqualTo(bound);
+  }
+
+  /**
+   * Returns a filter passing the values in range <tt>[low, high]</tt>.
+   *
+   * @param low the lower bound, inclusive
+   * @param high the upper bound, inclusive
+   * @return the column filter
+   */
+  public static IntBatchFilter between(int low, int high) {
+    if (low > high) throw new IllegalArgumentException("low > high");
+    return new IntBetween(low, high);
+  }
+
+  /**
+   * Returns a filter passing the values greater than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static LongBatchFilter greaterThan(long bound) {
+    return new LongGreaterThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values less than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static LongBatchFilter lessThan(long bound) {
+    return new LongLessThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values equal to the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static LongBatchFilter equalTo(long bound) {
+    return new LongEqualTo(bound);
+  }
+
+  /**
+   * Returns a filter passing the values in range <tt>[low, high]</tt>.
+   *
+   * @param low the lower bound, inclusive
+   * @param high the upper bound, inclusive
+   * @return the column filter
+   */
+  public static LongBatchFilter between(long low, long high) {
+    if (low > high) throw new IllegalArgumentException("low > high");
+    return new LongBetween(low, high);
+  }
+
+  /**
+   * Returns a filter passing the values greater than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static DoubleBatchFilter greaterThan(double bound) {
+    return new DoubleGreaterThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values less than the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static DoubleBatchFilter lessThan(double bound) {
+    return new DoubleLessThan(bound);
+  }
+
+  /**
+   * Returns a filter passing the values equal to the bound.
+   *
+   * @param bound the bound
+   * @return the column filter
+   */
+  public static DoubleBatchFilter equalTo(double bound) {
+    return new DoubleEqualTo(bound);
+  }
+
+  /**
+   * Returns a filter passing the values in range <tt>[low, high]</tt>.
+   *
+   * @param low the lower bound, inclusive
+   * @param high the upper bound, inclusive
+   * @return the column filter
+   */
+  public static DoubleBatchFilter between(double low, double high) {
+    if (low > high) throw new IllegalArgumentException("low > high");
+    return new DoubleBetween(low, high);
+  }
+
+  private static final class IntGreaterThan implements IntBatchFilter, Selections.Total {
+    private final int bound;
+
+    IntGreaterThan(int bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(int v) {
+      return v > bound;
+    }
+
+    @Override public void testBatch(int[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final int bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          int v = column[i];
+          word |= (v > bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class IntLessThan implements IntBatchFilter, Selections.Total {
+    private final int bound;
+
+    IntLessThan(int bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(int v) {
+      return v < bound;
+    }
+
+    @Override public void testBatch(int[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final int bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          int v = column[i];
+          word |= (v < bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class IntEqualTo implements IntBatchFilter, Selections.Total {
+    private final int bound;
+
+    IntEqualTo(int bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(int v) {
+      return v == bound;
+    }
+
+    @Override public void testBatch(int[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final int bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          int v = column[i];
+          word |= (v == bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class IntBetween implements IntBatchFilter, Selections.Total {
+    private final int low;
+    private final int high;
+
+    IntBetween(int low, int high) {
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override public boolean test(int v) {
+      return v >= low && v <= high;
+    }
+
+    @Override public void testBatch(int[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final int low = this.low;
+      final int high = this.high;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          int v = column[i];
+          word |= (v >= low & v <= high ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class LongGreaterThan implements LongBatchFilter, Selections.Total {
+    private final long bound;
+
+    LongGreaterThan(long bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(long v) {
+      return v > bound;
+    }
+
+    @Override public void testBatch(long[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final long bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          long v = column[i];
+          word |= (v > bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class LongLessThan implements LongBatchFilter, Selections.Total {
+    private final long bound;
+
+    LongLessThan(long bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(long v) {
+      return v < bound;
+    }
+
+    @Override public void testBatch(long[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final long bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          long v = column[i];
+          word |= (v < bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class LongEqualTo implements LongBatchFilter, Selections.Total {
+    private final long bound;
+
+    LongEqualTo(long bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(long v) {
+      return v == bound;
+    }
+
+    @Override public void testBatch(long[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final long bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          long v = column[i];
+          word |= (v == bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class LongBetween implements LongBatchFilter, Selections.Total {
+    private final long low;
+    private final long high;
+
+    LongBetween(long low, long high) {
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override public boolean test(long v) {
+      return v >= low && v <= high;
+    }
+
+    @Override public void testBatch(long[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final long low = this.low;
+      final long high = this.high;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          long v = column[i];
+          word |= (v >= low & v <= high ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class DoubleGreaterThan implements DoubleBatchFilter, Selections.Total {
+    private final double bound;
+
+    DoubleGreaterThan(double bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(double v) {
+      return v > bound;
+    }
+
+    @Override public void testBatch(double[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final double bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          double v = column[i];
+          word |= (v > bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class DoubleLessThan implements DoubleBatchFilter, Selections.Total {
+    private final double bound;
+
+    DoubleLessThan(double bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(double v) {
+      return v < bound;
+    }
+
+    @Override public void testBatch(double[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final double bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          double v = column[i];
+          word |= (v < bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class DoubleEqualTo implements DoubleBatchFilter, Selections.Total {
+    private final double bound;
+
+    DoubleEqualTo(double bound) {
+      this.bound = bound;
+    }
+
+    @Override public boolean test(double v) {
+      return v == bound;
+    }
+
+    @Override public void testBatch(double[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final double bound = this.bound;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          double v = column[i];
+          word |= (v == bound ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+
+  private static final class DoubleBetween implements DoubleBatchFilter, Selections.Total {
+    private final double low;
+    private final double high;
+
+    DoubleBetween(double low, double high) {
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override public boolean test(double v) {
+      return v >= low && v <= high;
+    }
+
+    @Override public void testBatch(double[] column, int from, int to, long[] selection) {
+      Selections.checkRange(column.length, from, to, selection);
+      final double low = this.low;
+      final double high = this.high;
+      for (int base = from, w = 0; base < to; base += 64, w++) {
+        int end = Math.min(base + 64, to);
+        long word = 0;
+        for (int i = base; i < end; i++) {
+          double v = column[i];
+          word |= (v >= low & v <= high ? 1L : 0L) << (i - base);
+        }
+        selection[w] = word;
+      }
+    }
+  }
+}
@@ -16,87 +16,211 @@ package io.harborl.solid.toys.filter;
  * </tt><br>
  * <i>which equals </i><br>
  * {@code A && B || C && D }
+ * <p>
+ * The chain is evaluated strictly from left to right, i.e. the above one
+ * equals {@code ((A && B) || C) && D}. It is {@linkplain #compile() compiled}
+ * into a flat program on the first test, so that a long chain is evaluated 
+ * in a single loop instead of a deep recursion of nested conditions.
+ * <p>
+ * An {@linkplain #adaptive() adaptive} filter of the chain reorders the clauses
+ * of every pure {@code and} run or pure {@code or} run by their observed cost 
+ * and pass rate, which does not change the result as long as the clauses are 
+ * free of side effects. A clause guarding the others, or having side effects,
+ * should be appended with {@linkplain Hint#ORDER_SENSITIVE} to keep its place.
+ * The results of a clause appended with {@linkplain Hint#EXPENSIVE} are cached.
+ * <p>
+ * A block of terms can be tested at once with {@linkplain #testBatch}, the 
+ * clauses implementing {@linkplain BatchFilter} test the whole block while none
+ * of its terms is decided, and their bitmaps are combined with bitwise 
+ * {@code and} / {@code or}.
  * 
  * @author Harbor Luo
  * @since 0.0.1
  *
  * @param <T> the test term type
  */
-public class Condition<T> implements Filter<T> {
+public class Condition<T> implements BatchFilter<T> {
 
   /** The enums of all condition operations. */
   private enum ConOp { AND, OR, DUMMY }
 
+  /**
+   * The hints of a clause, which tell how the clause may be evaluated.
+   */
+  public enum Hint {
+    /** 
+     * The clause keeps its place on reordering, and no other clause
+     * is moved across it.
+     */
+    ORDER_SENSITIVE,
+
+    /**
+     * The clause is expensive, its results are cached by term with 
+     * a {@linkplain MemoizedFilter}. The terms must implement {@code equals}
+     * and {@code hashCode}, and the clause must be free of side effects.
+     */
+    EXPENSIVE
+  }
+
+  /** The header filter, or the condition chain before this one. */
   private final Filter<T> underlying;
   private final ConOp condition;
+  /** The appended filter, or null for the header condition. */
+  private final Filter<T> operand;
+  /** The hints of the appended filter, or of the header filter for the header condition. */
+  private final int hints;
+
+  /** The compiled program, it is racy but idempotent to build. */
+  private volatile Program<T> program;
   
-  private Condition(Filter<T> underlying, ConOp condition) {
-    this.underlying = underlying;
+  private Condition(Filter<T> underlying, ConOp condition, Filter<T> operand, Hint... hints) {
+    int bits = 0;
+    for (Hint hint : hints) {
+      bits |= 1 << hint.ordinal();
+    }
+    this.hints = bits;
     this.condition = condition;
+
+    // The hints belong to the header filter for the header condition.
+    boolean expensive = (bits & (1 << Hint.EXPENSIVE.ordinal())) != 0;
+    this.underlying = expensive && condition == ConOp.DUMMY ? memoized(underlying) : underlying;
+    this.operand = expensive && operand != null ? memoized(operand) : operand;
+  }
+
+  private static <T> Filter<T> memoized(Filter<T> filter) {
+    return MemoizedFilter.of(filter, MemoizedFilter.DEFAULT_SIZE);
   }
 
   /**
    * Creates a condition filter with the 'header' underlying condition.
    * 
    * @param underlying the evaluation filter
+   * @param hints the hints of the evaluation filter
    * @return a instance of the condition filter
    * 
    * @param <KEY> the test term type
    */
-  public static <KEY> Condition<KEY> newInstance(Filter<KEY> underlying) {
+  public static <KEY> Condition<KEY> newInstance(Filter<KEY> underlying, Hint... hints) {
     if (underlying == null) throw new NullPointerException("header filter is null");
-    return new Condition<KEY>(underlying, ConOp.DUMMY);
+    return new Condition<KEY>(underlying, ConOp.DUMMY, null, hints);
   }
 
   /**
    * Appends a {@code and} condition operation with a underlying {@linkplain Filter}.
    * 
    * @param underlying the evaluation filter
+   * @param hints the hints of the evaluation filter
    * @return a instance of the condition filter
    */
-  public Condition<T> and(final Filter<T> underlying) {
+  public Condition<T> and(final Filter<T> underlying, Hint... hints) {
     if (underlying == null) throw new NullPointerException("successor filter is null");
-    return new Condition<T>(this, ConOp.AND) {
-      @Override protected boolean evaluate(T t) { 
-        return underlying.test(t); 
-      }
-    };
+    return new Condition<T>(this, ConOp.AND, underlying, hints);
   }
 
   /**
    * Appends a {@code or} condition operation with a underlying {@linkplain Filter}.
    * 
    * @param underlying the evaluation filter
+   * @param hints the hints of the evaluation filter
    * @return a instance of the condition filter
    */
-  public Condition<T> or(final Filter<T> underlying) {
+  public Condition<T> or(final Filter<T> underlying, Hint... hints) {
     if (underlying == null) throw new NullPointerException("successor filter is null");
-    return new Condition<T>(this, ConOp.OR) {
-      @Override protected boolean evaluate(T t) { 
-        return underlying.test(t); 
-      }
-    };
+    return new Condition<T>(this, ConOp.OR, underlying, hints);
+  }
+
+  /**
+   * Compiles the chain into a flat program with the same left to right semantics.
+   * A nested condition clause is compiled as well.
+   * 
+   * @return the compiled filter
+   */
+  public Filter<T> compile() {
+    return program();
+  }
+
+  private Program<T> program() {
+    Program<T> compiled = program;
+    if (compiled == null) {
+      Flat<T> flat = flatten();
+      program = compiled = new Program<T>(flat.clauses, flat.or);
+    }
+    return compiled;
+  }
+
+  /**
+   * Compiles the chain into a program which reorders the clauses within the 
+   * runs of the same operator by their observed cost and pass rate. 
+   * Only a sample of the tests is measured, so the overhead stays low.
+   * <p>
+   * The clauses must be free of side effects, except the ones appended 
+   * with {@linkplain Hint#ORDER_SENSITIVE}. Every call creates a new
+   * filter with its own observations.
+   * 
+   * @return the adaptive filter
+   */
+  public Filter<T> adaptive() {
+    Flat<T> flat = flatten();
+    return new AdaptiveProgram<T>(flat.clauses, flat.or, flat.pinned);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Flat<T> flatten() {
+    int n = 1;
+    for (Condition<T> c = this; c.condition != ConOp.DUMMY; c = (Condition<T>) c.underlying) {
+      n++;
+    }
+
+    Flat<T> flat = new Flat<T>(n);
+    Condition<T> c = this;
+    for (int i = n - 1; i > 0; i--) {
+      flat.set(i, compiled(c.operand), c.condition == ConOp.OR, c.hints);
+      c = (Condition<T>) c.underlying;
+    }
+    flat.set(0, compiled(c.underlying), false, c.hints);
+    return flat;
+  }
+
+  private static <T> Filter<T> compiled(Filter<T> clause) {
+    return clause instanceof Condition ? ((Condition<T>) clause).compile() : clause;
   }
 
   /**
    * The implementation details: <br>
-   * Except for the header condition that must be a dummy type 
-   * operation, other underlying conditions will be chained and tests through it's evaluate call.
+   * The chain is compiled into a flat program on the first call,
+   * which evaluates the clauses from left to right.
    */
   @Override public boolean test(T t) {
-    if (condition == ConOp.AND) {
-      return underlying.test(t) && this.evaluate(t);
-    } else if (condition == ConOp.OR) {
-      return underlying.test(t) || this.evaluate(t);
-    } else { // Dummy node as a header condition
-      return underlying.test(t);
-    }
+    return compile().test(t);
+  }
+
+  /**
+   * The implementation details: <br>
+   * A clause only tests the terms not decided yet, so it sees the same terms
+   * as {@linkplain #test}. A {@linkplain BatchFilter} clause tests the block at
+   * once if none of its terms is decided, otherwise it tests them one by one.
+   */
+  @Override public void testBatch(T[] terms, int from, int to, long[] selection) {
+    program().testBatch(terms, from, to, selection);
   }
 
-  protected boolean evaluate(T t) {
-    // The dummy node should always be the header condition
-    if (this.condition == ConOp.DUMMY)
-      throw new AssertionError("invalid state! - The dummy node should always be the header condition");
-    return true;
+  /** The flat arrays of a chain, the first clause is the header. */
+  private static final class Flat<T> {
+    final Filter<T>[] clauses;
+    final boolean[] or;
+    final boolean[] pinned;
+
+    @SuppressWarnings("unchecked")
+    Flat(int n) {
+      clauses = (Filter<T>[]) new Filter<?>[n];
+      or = new boolean[n];
+      pinned = new boolean[n];
+    }
+
+    void set(int i, Filter<T> clause, boolean or, int hints) {
+      this.clauses[i] = clause;
+      this.or[i] = or;
+      this.pinned[i] = (hints & (1 << Hint.ORDER_SENSITIVE.ordinal())) != 0;
+    }
   }
 }
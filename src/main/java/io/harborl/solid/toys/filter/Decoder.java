@@ -0,0 +1,23 @@
+package io.harborl.solid.toys.filter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoder used to convert the bytes of a record to a term.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the term type
+ */
+public interface Decoder<T> {
+
+  /**
+   * Returns the term of a record. The buffer is only valid during the call,
+   * it must not be kept.
+   * 
+   * @param record the record bytes between its position and limit
+   * @return the decoded term
+   */
+  T decode(ByteBuffer record);
+}
@@ -0,0 +1,390 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@code Expressions} compiles text expressions over named {@linkplain Filter}s.
+ * <p>
+ * The grammar is the one of Java boolean expressions:
+ * <pre>
+ * expression := term ( '||' term )*
+ * term       := factor ( '&amp;&amp;' factor )*
+ * factor     := '!' factor | '(' expression ')' | name
+ * </pre>
+ * where a name is a predicate defined with {@linkplain #define(String, Filter)}.
+ * <p>
+ * All the filters compiled by the same instance share their sub-expressions. A
+ * predicate or a sub-expression used more than once in a filter is evaluated only
+ * once per test, and the other uses take its result. Within a
+ * {@linkplain #enter(Object) scope} of a term, the results are shared by all the
+ * filters tested with that term on the thread as well, so compiling all the
+ * subscriber filters of a {@code ConcurrentDispatch}, which tests each message in
+ * a scope, together evaluates the common predicates once per message. The term of
+ * a scope is told apart by its identity, so it must not be changed in the scope.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * Expressions<String> expressions = new Expressions<String>()
+ *     .define("info", info).define("error", error).define("audit", audit);
+ * Filter<String> filter = expressions.compile("audit && (info || !error)");
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the test term type
+ */
+public final class Expressions<T> {
+
+  // Guarded by this
+  private final Map<String, Filter<T>> predicates = new HashMap<String, Filter<T>>();
+  /** The nodes by their canonical forms, which makes the equal ones the same node. */
+  private final Map<String, Node<T>> nodes = new HashMap<String, Node<T>>();
+  private volatile int slots;
+
+  /** The scope of current thread, shared by all the instances. */
+  private static final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>() {
+    @Override protected Scope initialValue() {
+      return new Scope();
+    }
+  };
+
+  /** The results of shared nodes for the last test on current thread. */
+  private final ThreadLocal<Memo> memos = new ThreadLocal<Memo>() {
+    @Override protected Memo initialValue() {
+      return new Memo();
+    }
+  };
+
+  /**
+   * Enters the scope of a term on current thread, the filters compiled by any
+   * instance and tested with the term till {@linkplain #exit(Object)} share their
+   * results. The term must not be changed in the scope. A null term shares
+   * nothing, its scope only hides the enclosing one.
+   * <p>
+   * <strong>Usage:</strong>
+   * <pre>{@code
+   * Object outer = Expressions.enter(message);
+   * try {
+   *   // Tests the message with many filters.
+   * } finally {
+   *   Expressions.exit(outer);
+   * }
+   * }</pre>
+   *
+   * @param term the term to be tested, or null
+   * @return the term of the enclosing scope, or null, to be passed to {@linkplain #exit(Object)}
+   */
+  public static Object enter(Object term) {
+    Scope scope = scopes.get();
+    Object outer = scope.term;
+    scope.open(term);
+    return outer;
+  }
+
+  /**
+   * Exits the scope entered by {@linkplain #enter(Object)}, and returns to the enclosing one.
+   *
+   * @param outer the value returned by the paired {@linkplain #enter(Object)}
+   */
+  public static void exit(Object outer) {
+    // The results of the outer term may be overwritten in the inner scope.
+    scopes.get().open(outer);
+  }
+
+  /**
+   * Defines a named predicate, it can not be redefined.
+   *
+   * @param name the name used in expressions
+   * @param filter the predicate
+   * @return this instance
+   * @throws IllegalArgumentException if the name is invalid or defined already
+   */
+  public synchronized Expressions<T> define(String name, Filter<T> filter) {
+    if (name == null || filter == null) throw new NullPointerException();
+    if (!isName(name)) throw new IllegalArgumentException("invalid name: " + name);
+    if (predicates.containsKey(name)) throw new IllegalArgumentException("defined already: " + name);
+
+    predicates.put(name, filter instanceof Condition ? ((Condition<T>) filter).compile() : filter);
+    return this;
+  }
+
+  /**
+   * Compiles an expression into a filter.
+   *
+   * @param expression the expression text
+   * @return the compiled filter
+   * @throws IllegalArgumentException if the expression is malformed or
+   * refers an undefined predicate
+   */
+  public synchronized Filter<T> compile(String expression) {
+    if (expression == null) throw new NullPointerException("expression == null");
+
+    Parser parser = new Parser(expression);
+    Node<T> root = parser.expression();
+    parser.expectEnd();
+    return new Compiled(root);
+  }
+
+  private static boolean isName(String name) {
+    if (name.isEmpty()) return false;
+    for (int i = 0; i < name.length(); i++) {
+      if (!isNamePart(name.charAt(i))) return false;
+    }
+    return true;
+  }
+
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+  }
+
+  /**
+   * Returns the node of a canonical form, and counts the reference to it.
+   * A node referenced more than once becomes shared.
+   */
+  private Node<T> intern(Node<T> created) {
+    Node<T> existing = nodes.get(created.form);
+    if (existing == null) {
+      nodes.put(created.form, created);
+      return created;
+    }
+    if (existing.slot < 0) {
+      existing.slot = slots++;
+    }
+    return existing;
+  }
+
+  /** A compiled expression. */
+  private final class Compiled implements Filter<T> {
+    private final Node<T> root;
+
+    Compiled(Node<T> root) {
+      this.root = root;
+    }
+
+    @Override public boolean test(T t) {
+      Memo memo = memos.get();
+      Scope scope = scopes.get();
+      memo.begin(t != null && scope.term == t ? scope.generation : 0, slots);
+      return root.test(t, memo);
+    }
+  }
+
+  /**
+   * The term of current scope on a thread, or null if no term is shared,
+   * each scope opened has a new generation.
+   */
+  private static final class Scope {
+    Object term;
+    int generation;
+
+    void open(Object t) {
+      term = t;
+      if (++generation == 0) {
+        generation = 1;
+      }
+    }
+  }
+
+  /**
+   * The per-thread results of shared nodes, a result is valid only
+   * if its stamp equals the current epoch.
+   */
+  private static final class Memo {
+    /** The scope generation of current epoch, 0 if it is out of any scope. */
+    int generation;
+    int epoch = 1;
+    int[] stamps = new int[0];
+    boolean[] results = new boolean[0];
+
+    /**
+     * Begins a test, a new epoch is opened unless it is in the same scope as the last test.
+     */
+    void begin(int generation, int slots) {
+      if (stamps.length < slots) {
+        stamps = Arrays.copyOf(stamps, slots);
+        results = Arrays.copyOf(results, slots);
+      }
+      if (generation == 0 || generation != this.generation) {
+        this.generation = generation;
+        if (++epoch == 0) {
+          Arrays.fill(stamps, 0);
+          epoch = 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * A node of expression tree.
+   */
+  private abstract static class Node<T> {
+    /** The canonical form, equal nodes have the same form. */
+    final String form;
+    /** The memo slot, or -1 if it is not shared yet. */
+    volatile int slot = -1;
+
+    Node(String form) {
+      this.form = form;
+    }
+
+    final boolean test(T t, Memo memo) {
+      int slot = this.slot;
+      if (slot < 0 || slot >= memo.stamps.length) {
+        return evaluate(t, memo);
+      }
+      if (memo.stamps[slot] == memo.epoch) {
+        return memo.results[slot];
+      }
+      boolean result = evaluate(t, memo);
+      memo.results[slot] = result;
+      memo.stamps[slot] = memo.epoch;
+      return result;
+    }
+
+    abstract boolean evaluate(T t, Memo memo);
+  }
+
+  private static final class Leaf<T> extends Node<T> {
+    private final Filter<T> filter;
+
+    Leaf(String name, Filter<T> filter) {
+      super(name);
+      this.filter = filter;
+    }
+
+    @Override boolean evaluate(T t, Memo memo) {
+      return filter.test(t);
+    }
+  }
+
+  private static final class Not<T> extends Node<T> {
+    private final Node<T> operand;
+
+    Not(Node<T> operand) {
+      super("!" + operand.form);
+      this.operand = operand;
+    }
+
+    @Override boolean evaluate(T t, Memo memo) {
+      return !operand.test(t, memo);
+    }
+  }
+
+  /** An n-ary {@code and} / {@code or}, evaluated from left to right with short circuit. */
+  private static final class Junction<T> extends Node<T> {
+    private final Node<T>[] operands;
+    private final boolean or;
+
+    Junction(Node<T>[] operands, boolean or) {
+      super(formOf(operands, or));
+      this.operands = operands;
+      this.or = or;
+    }
+
+    private static String formOf(Node<?>[] operands, boolean or) {
+      StringBuilder form = new StringBuilder(or ? "or(" : "and(");
+      for (int i = 0; i < operands.length; i++) {
+        if (i > 0) form.append(',');
+        form.append(operands[i].form);
+      }
+      return form.append(')').toString();
+    }
+
+    @Override boolean evaluate(T t, Memo memo) {
+      for (Node<T> operand : operands) {
+        if (operand.test(t, memo) == or) {
+          return or;
+        }
+      }
+      return !or;
+    }
+  }
+
+  /** A recursive descent parser building the interned nodes. */
+  private final class Parser {
+    private final String text;
+    private int pos;
+
+    Parser(String text) {
+      this.text = text;
+    }
+
+    Node<T> expression() {
+      return junction(true);
+    }
+
+    /** Parses the operands joined by the same operator, the nested same ones are flattened. */
+    @SuppressWarnings("unchecked")
+    private Node<T> junction(boolean or) {
+      List<Node<T>> operands = new ArrayList<Node<T>>();
+      do {
+        Node<T> operand = or ? junction(false) : factor();
+        if (operand instanceof Junction && ((Junction<T>) operand).or == or) {
+          operands.addAll(Arrays.asList(((Junction<T>) operand).operands));
+        } else {
+          operands.add(operand);
+        }
+      } while (accept(or ? "||" : "&&"));
+
+      if (operands.size() == 1) {
+        return operands.get(0);
+      }
+      return intern(new Junction<T>(operands.toArray((Node<T>[]) new Node<?>[operands.size()]), or));
+    }
+
+    private Node<T> factor() {
+      if (accept("!")) {
+        return intern(new Not<T>(factor()));
+      }
+      if (accept("(")) {
+        Node<T> nested = expression();
+        if (!accept(")")) throw error("')' expected");
+        return nested;
+      }
+
+      skipSpaces();
+      int start = pos;
+      while (pos < text.length() && isNamePart(text.charAt(pos))) {
+        pos++;
+      }
+      if (start == pos) throw error("predicate name expected");
+      String name = text.substring(start, pos);
+      Filter<T> filter = predicates.get(name);
+      if (filter == null) throw error("undefined predicate '" + name + "'", start);
+      return intern(new Leaf<T>(name, filter));
+    }
+
+    void expectEnd() {
+      skipSpaces();
+      if (pos < text.length()) throw error("unexpected '" + text.charAt(pos) + "'");
+    }
+
+    private boolean accept(String token) {
+      skipSpaces();
+      if (text.startsWith(token, pos)) {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private void skipSpaces() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return error(message, pos);
+    }
+
+    private IllegalArgumentException error(String message, int at) {
+      return new IllegalArgumentException(message + " at " + at + ": " + text);
+    }
+  }
+}
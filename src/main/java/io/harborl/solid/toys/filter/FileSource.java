@@ -0,0 +1,466 @@
+package io.harborl.solid.toys.filter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A {@code FileSource} streams the delimited records of a file, without loading
+ * the file onto the heap.
+ * <p>
+ * The file is memory mapped window by window, and a record is decoded only when
+ * it is reached, so a {@linkplain #pipeline()} stopped early, like {@code first}, 
+ * never reads the rest of the file. The passing records can be taken one by one 
+ * with an {@linkplain #iterator(Filter) iterator}, or copied into another file 
+ * as they are with {@linkplain #writeTo(Filter, File)}.
+ * <p>
+ * A large file can be scanned in parallel on a fork/join pool, the file is split
+ * into chunks at the record boundaries and every chunk is scanned by a task,
+ * the filter and the decoder must be thread-safe then.
+ * <p>
+ * The records are the ones in the file when the source is opened, the file must
+ * not be truncated while it is open.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * try (FileSource<String> source = FileSource.lines(log, UTF_8)) {
+ *   long errors = source.count(filter, pool);
+ * }
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the record term type
+ */
+public final class FileSource<T> implements Closeable {
+
+  /** The max size of a mapped window, a longer record makes its window grow. */
+  static final int WINDOW_SIZE = 64 << 20;
+
+  /** The size of a chunk scanned by a task, at least. */
+  static final long MIN_CHUNK_SIZE = 1 << 20;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final long size;
+  private final byte delimiter;
+  private final Decoder<? extends T> decoder;
+
+  private FileSource(File file, byte delimiter, Decoder<? extends T> decoder) throws IOException {
+    this.file = file;
+    this.raf = new RandomAccessFile(file, "r");
+    this.channel = raf.getChannel();
+    this.size = channel.size();
+    this.delimiter = delimiter;
+    this.decoder = decoder;
+  }
+
+  /**
+   * Opens a source of the lines of a text file, a line ends with {@code '\n'}
+   * or {@code "\r\n"}. The charset must encode {@code '\n'} as the single byte
+   * {@code 0x0A}, like UTF-8, ISO-8859-1 and the other ASCII compatible ones.
+   *
+   * @param file the text file
+   * @param charset the charset of the text
+   * @return the opened source
+   * @throws IOException if the file can not be opened
+   */
+  public static FileSource<String> lines(File file, final Charset charset) throws IOException {
+    if (charset == null) throw new NullPointerException("charset == null");
+    return records(file, (byte) '\n', new Decoder<String>() {
+      @Override public String decode(ByteBuffer record) {
+        int length = record.remaining();
+        if (length > 0 && record.get(record.limit() - 1) == '\r') {
+          length--;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, charset);
+      }
+    });
+  }
+
+  /**
+   * Opens a source of the records separated by a delimiter byte.
+   *
+   * @param file the data file
+   * @param delimiter the byte ending every record, the last one may not end with it
+   * @param decoder the decoder of records
+   * @return the opened source
+   * @throws IOException if the file can not be opened
+   * 
+   * @param <T> the record term type
+   */
+  public static <T> FileSource<T> records(File file, byte delimiter, Decoder<? extends T> decoder) 
+      throws IOException {
+    if (file == null) throw new NullPointerException("file == null");
+    if (decoder == null) throw new NullPointerException("decoder == null");
+    return new FileSource<T>(file, delimiter, decoder);
+  }
+
+  /**
+   * Returns a lazy pipeline of all the records in order. 
+   * An I/O error is thrown as an {@linkplain IllegalStateException}.
+   *
+   * @return the pipeline
+   */
+  public Pipeline<T> pipeline() {
+    return new Pipeline<T>() {
+      @Override boolean push(Sink<? super T> sink) {
+        try {
+          Cursor cursor = new Cursor(0, size);
+          for (ByteBuffer record = cursor.next(); record != null; record = cursor.next()) {
+            if (!sink.accept(decoder.decode(record))) return false;
+          }
+          return true;
+        } catch (IOException e) {
+          throw new IllegalStateException("failed to read " + file, e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns an iterator of the records passing the filter, which reads 
+   * the file as it goes. An I/O error is thrown as an {@linkplain IllegalStateException}.
+   *
+   * @param filter the filter, or null for all the records
+   * @return the iterator
+   */
+  public Iterator<T> iterator(final Filter<? super T> filter) {
+    final Cursor cursor = new Cursor(0, size);
+    return new Iterator<T>() {
+      private T next;
+      private boolean ready;
+      private boolean done;
+
+      @Override public boolean hasNext() {
+        while (!ready && !done) {
+          ByteBuffer record;
+          try {
+            record = cursor.next();
+          } catch (IOException e) {
+            throw new IllegalStateException("failed to read " + file, e);
+          }
+          if (record == null) {
+            done = true;
+          } else {
+            T t = decoder.decode(record);
+            if (filter == null || filter.test(t)) {
+              next = t;
+              ready = true;
+            }
+          }
+        }
+        return ready;
+      }
+
+      @Override public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        T t = next;
+        next = null;
+        ready = false;
+        return t;
+      }
+
+      @Override public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Counts the records passing the filter in parallel.
+   *
+   * @param filter the thread-safe filter
+   * @param pool the pool running the chunk tasks
+   * @return the number of passing records
+   * @throws IOException if the file can not be read
+   */
+  public long count(final Filter<? super T> filter, ForkJoinPool pool) throws IOException {
+    if (filter == null) throw new NullPointerException("filter == null");
+    List<Scan> scans = new ArrayList<Scan>();
+    long[] bounds = chunks(pool.getParallelism());
+    for (int i = 0; i + 1 < bounds.length; i++) {
+      scans.add(new Scan(bounds[i], bounds[i + 1]) {
+        private static final long serialVersionUID = 1L;
+
+        @Override void scan(Cursor cursor) throws IOException {
+          for (ByteBuffer record = cursor.next(); record != null; record = cursor.next()) {
+            if (filter.test(decoder.decode(record))) passed++;
+          }
+        }
+      });
+    }
+    return sum(pool, scans);
+  }
+
+  /**
+   * Copies the records passing the filter into a file as they are, 
+   * every record ends with the delimiter in the target.
+   *
+   * @param filter the filter
+   * @param target the target file, it is replaced if it exists
+   * @return the number of copied records
+   * @throws IOException if the file can not be read, or the target can not be written
+   */
+  public long writeTo(Filter<? super T> filter, File target) throws IOException {
+    if (filter == null) throw new NullPointerException("filter == null");
+    return copy(filter, new Cursor(0, size), target);
+  }
+
+  /**
+   * Copies the records passing the filter into a file in parallel, the records
+   * are in the same order as the source. Every chunk is copied into its own 
+   * temporary file beside the target, which are joined at last.
+   *
+   * @param filter the thread-safe filter
+   * @param target the target file, it is replaced if it exists
+   * @param pool the pool running the chunk tasks
+   * @return the number of copied records
+   * @throws IOException if the file can not be read, or the target can not be written
+   */
+  public long writeTo(final Filter<? super T> filter, File target, ForkJoinPool pool) 
+      throws IOException {
+    if (filter == null) throw new NullPointerException("filter == null");
+    long[] bounds = chunks(pool.getParallelism());
+    final List<File> parts = new ArrayList<File>();
+    List<Scan> scans = new ArrayList<Scan>();
+    File directory = target.getAbsoluteFile().getParentFile();
+    try {
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        final File part = File.createTempFile(target.getName() + ".chunk", ".part", directory);
+        parts.add(part);
+        scans.add(new Scan(bounds[i], bounds[i + 1]) {
+          private static final long serialVersionUID = 1L;
+
+          @Override void scan(Cursor cursor) throws IOException {
+            passed = copy(filter, cursor, part);
+          }
+        });
+      }
+      long copied = sum(pool, scans);
+
+      try (FileChannel out = new FileOutputStream(target).getChannel()) {
+        for (File part : parts) {
+          try (FileChannel in = new RandomAccessFile(part, "r").getChannel()) {
+            long position = 0;
+            long length = in.size();
+            while (position < length) {
+              position += in.transferTo(position, length - position, out);
+            }
+          }
+        }
+      }
+      return copied;
+    } finally {
+      for (File part : parts) {
+        part.delete();
+      }
+    }
+  }
+
+  private long copy(Filter<? super T> filter, Cursor cursor, File target) throws IOException {
+    long copied = 0;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64 << 10);
+    try (FileChannel out = new FileOutputStream(target).getChannel()) {
+      for (ByteBuffer record = cursor.next(); record != null; record = cursor.next()) {
+        int start = record.position();
+        if (!filter.test(decoder.decode(record))) {
+          continue;
+        }
+        record.position(start);
+        if (buffer.remaining() < record.remaining() + 1) {
+          drain(buffer, out);
+          if (buffer.remaining() < record.remaining() + 1) {
+            while (record.hasRemaining()) {
+              out.write(record);
+            }
+          }
+        }
+        buffer.put(record);
+        buffer.put(delimiter);
+        copied++;
+      }
+      drain(buffer, out);
+    }
+    return copied;
+  }
+
+  private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private long sum(ForkJoinPool pool, final List<Scan> scans) throws IOException {
+    try {
+      return pool.invoke(new RecursiveTask<Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override protected Long compute() {
+          invokeAll(scans);
+          long sum = 0;
+          for (Scan scan : scans) {
+            sum += scan.join();
+          }
+          return sum;
+        }
+      });
+    } catch (IllegalStateException e) {
+      // The pool may rethrow a copy of the task exception, which wraps the original.
+      for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+        if (cause instanceof IOException) throw (IOException) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Splits the file into chunks at the record boundaries.
+   * 
+   * @return the bounds of chunks, the first is 0 and the last is the size
+   */
+  private long[] chunks(int parallelism) throws IOException {
+    int count = (int) Math.max(1, Math.min(parallelism * 4L, size / MIN_CHUNK_SIZE));
+    long[] bounds = new long[count + 1];
+    bounds[count] = size;
+    ByteBuffer probe = ByteBuffer.allocate(8 << 10);
+    for (int i = 1; i < count; i++) {
+      long position = Math.max(bounds[i - 1], size / count * i);
+      bounds[i] = nextRecord(position, probe);
+    }
+    return bounds;
+  }
+
+  /** Returns the start of the first record at or after a position. */
+  private long nextRecord(long position, ByteBuffer probe) throws IOException {
+    if (position == 0) {
+      return 0;
+    }
+    // A record starts right after a delimiter.
+    long at = position - 1;
+    while (at < size) {
+      probe.clear();
+      int n = channel.read(probe, at);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (probe.get(i) == delimiter) {
+          return at + i + 1;
+        }
+      }
+      at += n;
+    }
+    return size;
+  }
+
+  @Override public void close() throws IOException {
+    raf.close();
+  }
+
+  /** A task scanning a chunk, which counts its passing records. */
+  private abstract class Scan extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final long from;
+    private final long to;
+    long passed;
+
+    Scan(long from, long to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    abstract void scan(Cursor cursor) throws IOException;
+
+    @Override protected Long compute() {
+      try {
+        scan(new Cursor(from, to));
+      } catch (IOException e) {
+        throw new IllegalStateException("failed to read " + file, e);
+      }
+      return passed;
+    }
+  }
+
+  /**
+   * A cursor over the records of a range, which maps a window at a time.
+   * The returned record is a view of the window, it is valid till the next call.
+   */
+  private final class Cursor {
+    private final long to;
+    private int window = WINDOW_SIZE;
+
+    /** The file position of the mapped window. */
+    private long base;
+    private MappedByteBuffer buffer;
+    private ByteBuffer view;
+    private int limit;
+    /** The start of next record in the window. */
+    private int start;
+    /** The bytes before it are known to be no delimiter. */
+    private int scanned;
+
+    Cursor(long from, long to) {
+      this.base = from;
+      this.to = to;
+    }
+
+    ByteBuffer next() throws IOException {
+      for (;;) {
+        for (int i = scanned; i < limit; i++) {
+          if (buffer.get(i) == delimiter) {
+            scanned = i + 1;
+            return record(i);
+          }
+        }
+        scanned = limit;
+
+        if (base + limit == to) {
+          return start < limit ? record(limit) : null;
+        }
+        if (start == 0 && limit > 0) {
+          // A record longer than the window.
+          if (window == Integer.MAX_VALUE) throw new IOException("record too long at " + base);
+          window = (int) Math.min(Integer.MAX_VALUE, 2L * window);
+        }
+        map(base + start, limit - start);
+      }
+    }
+
+    private void map(long position, int known) throws IOException {
+      int size = (int) Math.min(window, to - position);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+      view = buffer.duplicate();
+      base = position;
+      limit = size;
+      start = 0;
+      scanned = known;
+    }
+
+    private ByteBuffer record(int end) {
+      view.limit(end);
+      view.position(start);
+      start = end + 1;
+      return view;
+    }
+  }
+}
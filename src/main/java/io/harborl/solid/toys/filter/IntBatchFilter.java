@@ -0,0 +1,21 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * An {@linkplain IntFilter} that can also test a column of {@code int} values at once,
+ * the results are written into a selection bitmap like {@linkplain BatchFilter}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public interface IntBatchFilter extends IntFilter {
+
+  /**
+   * Tests the values in range <tt>[from, to)</tt>.
+   * 
+   * @param column the evaluated values
+   * @param from the first index, inclusive
+   * @param to the last index, exclusive
+   * @param selection the target bitmap
+   */
+  void testBatch(int[] column, int from, int to, long[] selection);
+}
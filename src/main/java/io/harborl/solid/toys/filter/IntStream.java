@@ -0,0 +1,155 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.BitSet;
+
+/**
+ * A Stream of a primitive {@code int} array that can be filtered with 
+ * a {@linkplain IntFilter}, without boxing any element.
+ * <p>
+ * The result is either a new {@code int} array of the passing elements, 
+ * or a {@linkplain BitSet} of their indexes. A {@linkplain IntBatchFilter} tests
+ * the array block by block.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * int[] results = IntStream.wrap(samples).filter(filter).get();
+ * }</pre>
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class IntStream {
+
+  /** The number of elements tested at once by a batch filter, a multiple of 64. */
+  static final int BATCH_SIZE = 1024;
+
+  private final int[] array;
+  private volatile IntFilter filter;
+
+  private IntStream(int[] array) {
+    this.array = array;
+  }
+
+  /** 
+   * Creates a Stream with a copy of array. 
+   * 
+   * @param array the specified array
+   * @return a stream instance.
+   */
+  public static IntStream valueOf(int[] array) {
+    if (array == null) throw new NullPointerException("array == null");
+    return new IntStream(array.clone());
+  }
+
+  /** 
+   * Creates a Stream over an array without copying it, 
+   * the caller guarantees that the array is never changed.
+   * 
+   * @param array the specified array
+   * @return a stream instance.
+   */
+  public static IntStream wrap(int[] array) {
+    if (array == null) throw new NullPointerException("array == null");
+    return new IntStream(array);
+  }
+
+  /** 
+   * Injects the filter operation. 
+   * 
+   * @param filter the specified filter
+   * @return a stream instance.
+   */
+  public IntStream filter(IntFilter filter) {
+    this.filter = filter;
+    return this;
+  }
+
+  /** 
+   * Returns the indexes of elements passing the filter operation if it exists. 
+   * @return the bit set of indexes.
+   */
+  public BitSet bits() {
+    return bitsOf(filter);
+  }
+
+  private BitSet bitsOf(IntFilter theFilter) {
+    final int[] array = this.array;
+    long[] words = new long[(array.length + 63) >>> 6];
+    if (theFilter == null) {
+      BitSet all = new BitSet(array.length);
+      all.set(0, array.length);
+      return all;
+    }
+    if (theFilter instanceof IntBatchFilter) {
+      testBatch((IntBatchFilter) theFilter, array, words);
+      return BitSet.valueOf(words);
+    }
+    for (int i = 0; i < array.length; i++) {
+      if (theFilter.test(array[i])) {
+        words[i >>> 6] |= 1L << i;
+      }
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /** Tests the array block by block, so that a block stays in cache for all the clauses. */
+  private static void testBatch(IntBatchFilter filter, int[] array, long[] words) {
+    long[] block = new long[BATCH_SIZE >>> 6];
+    for (int from = 0; from < array.length; from += BATCH_SIZE) {
+      int to = Math.min(from + BATCH_SIZE, array.length);
+      filter.testBatch(array, from, to, block);
+      System.arraycopy(block, 0, words, from >>> 6, Selections.wordsOf(to - from));
+    }
+  }
+
+  /** 
+   * Filters and returns the elements with a filter operation if it exists. 
+   * @return a new array of the passing elements.
+   */
+  public int[] get() {
+    final IntFilter theFilter = this.filter;
+    if (theFilter == null) {
+      return array.clone();
+    }
+    BitSet bits = bitsOf(theFilter);
+    int[] target = new int[bits.cardinality()];
+    int j = 0;
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      target[j++] = array[i];
+    }
+    return target;
+  }
+
+  /** 
+   * Counts the elements passing the filter operation if it exists. 
+   * @return the number of passing elements.
+   */
+  public int count() {
+    final int[] array = this.array;
+    final IntFilter theFilter = this.filter;
+    if (theFilter == null) {
+      return array.length;
+    }
+    if (theFilter instanceof IntBatchFilter) {
+      return bitsOf(theFilter).cardinality();
+    }
+    int count = 0;
+    for (int t : array) {
+      if (theFilter.test(t)) count++;
+    }
+    return count;
+  }
+
+  /** 
+   * Returns the index of the first element passing the filter operation if it exists. 
+   * @return the index, or -1 if there is none.
+   */
+  public int indexOfFirst() {
+    final int[] array = this.array;
+    final IntFilter theFilter = this.filter;
+    for (int i = 0; i < array.length; i++) {
+      if (theFilter == null || theFilter.test(array[i])) return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,21 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * An {@linkplain LongFilter} that can also test a column of {@code long} values at once,
+ * the results are written into a selection bitmap like {@linkplain BatchFilter}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public interface LongBatchFilter extends LongFilter {
+
+  /**
+   * Tests the values in range <tt>[from, to)</tt>.
+   * 
+   * @param column the evaluated values
+   * @param from the first index, inclusive
+   * @param to the last index, exclusive
+   * @param selection the target bitmap
+   */
+  void testBatch(long[] column, int from, int to, long[] selection);
+}
@@ -0,0 +1,120 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.Arrays;
+
+/**
+ * A Condition Filter of primitive {@code long} terms, which composes 
+ * {@linkplain LongFilter}s with {@code and}, {@code or} condition operation.
+ * The chain is evaluated from left to right, the same as {@linkplain Condition}.
+ * <p>
+ * The clauses are kept in flat arrays, so that a test is a single loop
+ * jumping over the decided runs of clauses. A column is tested in batch by
+ * combining the bitmaps of clauses, see {@linkplain LongBatchFilter}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class LongCondition implements LongBatchFilter {
+
+  private final LongFilter[] clauses;
+  /** Whether the clause is joined by {@code or}, the first one is the header. */
+  private final boolean[] or;
+  private final int[] skip;
+
+  private LongCondition(LongFilter[] clauses, boolean[] or) {
+    this.clauses = clauses;
+    this.or = or;
+    this.skip = Program.skipTable(or);
+  }
+
+  /**
+   * Creates a condition filter with the 'header' underlying condition.
+   * 
+   * @param underlying the evaluation filter
+   * @return a instance of the condition filter
+   */
+  public static LongCondition newInstance(LongFilter underlying) {
+    if (underlying == null) throw new NullPointerException("header filter is null");
+    return new LongCondition(new LongFilter[] { underlying }, new boolean[1]);
+  }
+
+  /**
+   * Appends a {@code and} condition operation with a underlying filter.
+   * 
+   * @param underlying the evaluation filter
+   * @return a instance of the condition filter
+   */
+  public LongCondition and(LongFilter underlying) {
+    return append(underlying, false);
+  }
+
+  /**
+   * Appends a {@code or} condition operation with a underlying filter.
+   * 
+   * @param underlying the evaluation filter
+   * @return a instance of the condition filter
+   */
+  public LongCondition or(LongFilter underlying) {
+    return append(underlying, true);
+  }
+
+  private LongCondition append(LongFilter underlying, boolean isOr) {
+    if (underlying == null) throw new NullPointerException("successor filter is null");
+    int n = clauses.length;
+    LongFilter[] appended = Arrays.copyOf(clauses, n + 1);
+    boolean[] ops = Arrays.copyOf(or, n + 1);
+    appended[n] = underlying;
+    ops[n] = isOr;
+    return new LongCondition(appended, ops);
+  }
+
+  @Override public boolean test(long t) {
+    final LongFilter[] clauses = this.clauses;
+    final boolean[] or = this.or;
+    final int n = clauses.length;
+
+    boolean result = clauses[0].test(t);
+    int i = 1;
+    while (i < n) {
+      if (result == or[i]) {
+        i = skip[i];
+      } else {
+        result = clauses[i].test(t);
+        i++;
+      }
+    }
+    return result;
+  }
+
+  @Override public void testBatch(long[] column, int from, int to, long[] selection) {
+    Selections.checkRange(column.length, from, to, selection);
+    testBatch(column, from, to, selection, null);
+  }
+
+  /**
+   * Tests the terms of a mask in a block, the bits of the others are left undefined.
+   *
+   * @param mask the terms to test, or null for all of them
+   */
+  void testBatch(final long[] column, final int from, final int to, long[] selection, long[] mask) {
+    final LongFilter[] clauses = this.clauses;
+    Selections.evaluate(new Selections.Block() {
+      @Override public boolean testBatch(int clause, long[] target, long[] mask) {
+        if (clauses[clause] instanceof LongCondition) {
+          ((LongCondition) clauses[clause]).testBatch(column, from, to, target, mask);
+          return true;
+        }
+        if (clauses[clause] instanceof LongBatchFilter && (clauses[clause] instanceof Selections.Total
+            || Selections.covers(mask, to - from))) {
+          ((LongBatchFilter) clauses[clause]).testBatch(column, from, to, target);
+          return true;
+        }
+        return false;
+      }
+
+      @Override public boolean test(int clause, int index) {
+        return clauses[clause].test(column[from + index]);
+      }
+    }, or, skip, to - from, selection, mask);
+  }
+}
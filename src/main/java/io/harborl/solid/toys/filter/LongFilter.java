@@ -0,0 +1,19 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * A filter used to test if a primitive {@code long} term qualifies the request,
+ * which avoids boxing the term into {@code Long}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public interface LongFilter {
+  
+  /** 
+   * Returns the evaluation result.
+   * 
+   * @param t the evaluated term
+   * @return the evaluation result.
+   */
+  boolean test(long t);
+}
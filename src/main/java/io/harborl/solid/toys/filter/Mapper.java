@@ -0,0 +1,21 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * A mapper used to convert a term to another one.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the source term type
+ * @param <R> the result term type
+ */
+public interface Mapper<T, R> {
+
+  /**
+   * Returns the converted term.
+   * 
+   * @param t the source term
+   * @return the converted term
+   */
+  R map(T t);
+}
@@ -0,0 +1,205 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code MemoizedFilter} caches the results of an expensive filter by term,
+ * like a filter calling a remote lookup or running a heavy regex.
+ * <p>
+ * The cache is bounded, it is split into segments by the term hash and every
+ * segment evicts its least recently used result once it is full. A segment 
+ * is locked only for its own lookup and update, never while the underlying 
+ * filter is tested, so a term missed by two threads at the same time may be
+ * tested twice. A result can also expire after a time to live.
+ * <p>
+ * The terms must implement {@code equals} and {@code hashCode}, and the underlying
+ * filter must give the same result for the equal terms till the results expire.
+ * A {@code null} term is never cached.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * Filter<String> cached = MemoizedFilter.of(lookup, 10000, 30, TimeUnit.SECONDS);
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the test term type
+ */
+public final class MemoizedFilter<T> implements Filter<T> {
+
+  /** The cache size of the clauses marked {@linkplain Condition.Hint#EXPENSIVE}. */
+  static final int DEFAULT_SIZE = 1024;
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Filter<T> underlying;
+  private final Segment<T>[] segments;
+  private final int mask;
+  /** The time to live in nanoseconds, or 0 if the results never expire. */
+  private final long ttlNanos;
+
+  @SuppressWarnings("unchecked")
+  private MemoizedFilter(Filter<T> underlying, int maxSize, long ttlNanos) {
+    this.underlying = underlying;
+    this.ttlNanos = ttlNanos;
+    int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize));
+    this.segments = (Segment<T>[]) new Segment<?>[count];
+    for (int i = 0; i < count; i++) {
+      // The first segments take the remainder, so the sizes sum up to maxSize.
+      segments[i] = new Segment<T>(maxSize / count + (i < maxSize % count ? 1 : 0));
+    }
+    this.mask = count - 1;
+  }
+
+  /**
+   * Creates a filter caching the results without expiration.
+   *
+   * @param underlying the expensive filter
+   * @param maxSize the max number of cached results
+   * @return the memoized filter
+   * 
+   * @param <T> the test term type
+   */
+  public static <T> MemoizedFilter<T> of(Filter<T> underlying, int maxSize) {
+    return of(underlying, maxSize, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates a filter caching the results for a time to live.
+   *
+   * @param underlying the expensive filter
+   * @param maxSize the max number of cached results
+   * @param ttl the time to live of a result, or 0 if it never expires
+   * @param unit the time unit of ttl
+   * @return the memoized filter
+   * 
+   * @param <T> the test term type
+   */
+  public static <T> MemoizedFilter<T> of(Filter<T> underlying, int maxSize, long ttl, TimeUnit unit) {
+    if (underlying == null) throw new NullPointerException("underlying == null");
+    if (unit == null) throw new NullPointerException("unit == null");
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+    if (ttl < 0) throw new IllegalArgumentException("ttl < 0");
+    return new MemoizedFilter<T>(underlying, maxSize, unit.toNanos(ttl));
+  }
+
+  @Override public boolean test(T t) {
+    if (t == null) {
+      return underlying.test(t);
+    }
+    Segment<T> segment = segments[spread(t.hashCode()) & mask];
+    long now = ttlNanos > 0 ? System.nanoTime() : 0;
+
+    Result cached = segment.get(t, now);
+    if (cached != null) {
+      return cached.passed;
+    }
+    boolean passed = underlying.test(t);
+    segment.put(t, new Result(passed, ttlNanos > 0 ? now + ttlNanos : 0));
+    return passed;
+  }
+
+  /** Spreads the higher bits down, so that a poor hash still spans the segments. */
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    return h ^ (h >>> 13);
+  }
+
+  /**
+   * Returns the number of tests answered by the cache.
+   * 
+   * @return the number of hits
+   */
+  public long hits() {
+    long hits = 0;
+    for (Segment<T> segment : segments) {
+      hits += segment.hits();
+    }
+    return hits;
+  }
+
+  /**
+   * Returns the number of tests of the underlying filter, except the {@code null} terms.
+   * 
+   * @return the number of misses
+   */
+  public long misses() {
+    long misses = 0;
+    for (Segment<T> segment : segments) {
+      misses += segment.misses();
+    }
+    return misses;
+  }
+
+  /**
+   * Drops all the cached results.
+   */
+  public void clear() {
+    for (Segment<T> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /** A cached result, which expires at a {@code System.nanoTime()} if it is not 0. */
+  private static final class Result {
+    final boolean passed;
+    final long expiresAt;
+
+    Result(boolean passed, long expiresAt) {
+      this.passed = passed;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** A LRU segment of the cache. */
+  private static final class Segment<T> {
+    // Guarded by this
+    private final LinkedHashMap<T, Result> results;
+    private long hits;
+    private long misses;
+
+    Segment(final int capacity) {
+      this.results = new LinkedHashMap<T, Result>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override protected boolean removeEldestEntry(Map.Entry<T, Result> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    synchronized Result get(T t, long now) {
+      Result result = results.get(t);
+      if (result != null && result.expiresAt != 0 && now - result.expiresAt >= 0) {
+        results.remove(t);
+        result = null;
+      }
+      if (result == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+      return result;
+    }
+
+    synchronized void put(T t, Result result) {
+      results.put(t, result);
+    }
+
+    synchronized long hits() {
+      return hits;
+    }
+
+    synchronized long misses() {
+      return misses;
+    }
+
+    synchronized void clear() {
+      results.clear();
+    }
+  }
+}
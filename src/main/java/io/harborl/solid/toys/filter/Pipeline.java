@@ -0,0 +1,213 @@
+package io.harborl.solid.toys.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@code Pipeline} is a lazy sequence of filtering and mapping stages over a source.
+ * <p>
+ * Nothing is evaluated until a terminal operation, like {@code first}, {@code any},
+ * {@code count}, {@code forEach} or {@code toList}, is called. Then all the stages
+ * are fused into a single pass over the source, which stops as soon as the result
+ * is known, e.g. at the first match of {@code first} or the limit of {@code limit}.
+ * <p>
+ * A pipeline is immutable, every stage operation returns a new pipeline and
+ * the pipeline can be run many times. The source is not copied, so it must not
+ * be changed while a terminal operation is running.
+ * <p>
+ * <strong>Usage:</strong>
+ * <pre>{@code
+ * String first = Stream.wrap(samples).pipeline().filter(a).filter(b).first();
+ * }</pre>
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the term type
+ */
+public abstract class Pipeline<T> {
+
+  Pipeline() { }
+
+  /**
+   * Pushes every term of this pipeline to the sink, till the sink stops it.
+   *
+   * @param sink the receiving end
+   * @return false if the pushing is stopped before the end.
+   */
+  abstract boolean push(Sink<? super T> sink);
+
+  /**
+   * Creates a pipeline over a collection.
+   */
+  static <T> Pipeline<T> of(final Collection<T> source) {
+    if (source instanceof List && source instanceof RandomAccess) {
+      final List<T> list = (List<T>) source;
+      return new Pipeline<T>() {
+        @Override boolean push(Sink<? super T> sink) {
+          for (int i = 0, n = list.size(); i < n; i++) {
+            if (!sink.accept(list.get(i))) return false;
+          }
+          return true;
+        }
+      };
+    }
+    return new Pipeline<T>() {
+      @Override boolean push(Sink<? super T> sink) {
+        for (T t : source) {
+          if (!sink.accept(t)) return false;
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Appends a filtering stage.
+   *
+   * @param filter the filter, the terms not passing it are dropped
+   * @return the new pipeline
+   */
+  public Pipeline<T> filter(final Filter<? super T> filter) {
+    if (filter == null) throw new NullPointerException("filter == null");
+    final Pipeline<T> upstream = this;
+    return new Pipeline<T>() {
+      @Override boolean push(final Sink<? super T> sink) {
+        return upstream.push(new Sink<T>() {
+          @Override public boolean accept(T t) {
+            return !filter.test(t) || sink.accept(t);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Appends a mapping stage.
+   *
+   * @param mapper the mapper converting every term
+   * @return the new pipeline
+   *
+   * @param <R> the converted term type
+   */
+  public <R> Pipeline<R> map(final Mapper<? super T, ? extends R> mapper) {
+    if (mapper == null) throw new NullPointerException("mapper == null");
+    final Pipeline<T> upstream = this;
+    return new Pipeline<R>() {
+      @Override boolean push(final Sink<? super R> sink) {
+        return upstream.push(new Sink<T>() {
+          @Override public boolean accept(T t) {
+            return sink.accept(mapper.map(t));
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Appends a stage passing at most the specified number of terms,
+   * the upstream stops once the limit is reached.
+   *
+   * @param max the max number of terms
+   * @return the new pipeline
+   */
+  public Pipeline<T> limit(final long max) {
+    if (max < 0) throw new IllegalArgumentException("max < 0");
+    final Pipeline<T> upstream = this;
+    return new Pipeline<T>() {
+      @Override boolean push(final Sink<? super T> sink) {
+        if (max == 0) {
+          return true;
+        }
+        return upstream.push(new Sink<T>() {
+          private long left = max;
+
+          @Override public boolean accept(T t) {
+            return sink.accept(t) && --left > 0;
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Returns the first term.
+   *
+   * @return the first term, or null if there is none.
+   */
+  public T first() {
+    final List<T> found = new ArrayList<T>(1);
+    push(new Sink<T>() {
+      @Override public boolean accept(T t) {
+        found.add(t);
+        return false;
+      }
+    });
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Returns whether there is any term.
+   *
+   * @return true if there is any term.
+   */
+  public boolean any() {
+    final boolean[] found = new boolean[1];
+    push(new Sink<T>() {
+      @Override public boolean accept(T t) {
+        found[0] = true;
+        return false;
+      }
+    });
+    return found[0];
+  }
+
+  /**
+   * Returns the number of terms.
+   *
+   * @return the number of terms
+   */
+  public long count() {
+    final long[] count = new long[1];
+    push(new Sink<T>() {
+      @Override public boolean accept(T t) {
+        count[0]++;
+        return true;
+      }
+    });
+    return count[0];
+  }
+
+  /**
+   * Visits every term in order.
+   *
+   * @param visitor the visitor
+   */
+  public void forEach(final Visitor<? super T> visitor) {
+    if (visitor == null) throw new NullPointerException("visitor == null");
+    push(new Sink<T>() {
+      @Override public boolean accept(T t) {
+        visitor.visit(t);
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Collects all the terms in order.
+   *
+   * @return a new list of the terms
+   */
+  public List<T> toList() {
+    final List<T> target = new ArrayList<T>();
+    push(new Sink<T>() {
+      @Override public boolean accept(T t) {
+        target.add(t);
+        return true;
+      }
+    });
+    return target;
+  }
+}
@@ -0,0 +1,103 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * A flat, compiled form of a {@linkplain Condition} chain.
+ * <p>
+ * The clauses are kept in an array and evaluated in a single loop from left
+ * to right, the result of the clauses before is combined with the next clause
+ * by its operator. A clause that can not change the result is never evaluated:
+ * when the result is {@code false} a run of {@code and} clauses is jumped over,
+ * and when it is {@code true} a run of {@code or} clauses is jumped over.
+ * <p>
+ * A block of terms is tested by combining the selection bitmaps of clauses,
+ * see {@linkplain BatchFilter}.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the test term type
+ */
+final class Program<T> implements BatchFilter<T> {
+
+  private final Filter<T>[] clauses;
+
+  /** Whether the clause is joined by {@code or}, the first one is the header. */
+  private final boolean[] or;
+
+  /** The index of next clause with a different operator, where a decided run ends. */
+  private final int[] skip;
+
+  Program(Filter<T>[] clauses, boolean[] or) {
+    this.clauses = clauses;
+    this.or = or;
+    this.skip = skipTable(or);
+  }
+
+  /**
+   * Returns the index of next clause with a different operator for every clause,
+   * which is shared by the compiled chains of all term types.
+   */
+  static int[] skipTable(boolean[] or) {
+    int[] skip = new int[or.length];
+    for (int i = or.length - 1; i > 0; i--) {
+      boolean sameRun = i + 1 < or.length && or[i + 1] == or[i];
+      skip[i] = sameRun ? skip[i + 1] : i + 1;
+    }
+    return skip;
+  }
+
+  @Override public boolean test(T t) {
+    final Filter<T>[] clauses = this.clauses;
+    final boolean[] or = this.or;
+    final int n = clauses.length;
+
+    boolean result = clauses[0].test(t);
+    int i = 1;
+    while (i < n) {
+      if (result == or[i]) {
+        // true || ... or false && ..., the run is decided already.
+        i = skip[i];
+      } else {
+        result = clauses[i].test(t);
+        i++;
+      }
+    }
+    return result;
+  }
+
+  @Override public void testBatch(T[] terms, int from, int to, long[] selection) {
+    Selections.checkRange(terms.length, from, to, selection);
+    testBatch(terms, from, to, selection, null);
+  }
+
+  /**
+   * Tests the terms of a mask in a block, the bits of the others are left undefined.
+   *
+   * @param mask the terms to test, or null for all of them
+   */
+  void testBatch(final T[] terms, final int from, final int to, long[] selection, long[] mask) {
+    final Filter<T>[] clauses = this.clauses;
+    Selections.evaluate(new Selections.Block() {
+      @Override public boolean testBatch(int clause, long[] target, long[] mask) {
+        Filter<T> filter = clauses[clause];
+        if (filter instanceof Condition) {
+          filter = ((Condition<T>) filter).compile();
+        }
+        if (filter instanceof Program) {
+          ((Program<T>) filter).testBatch(terms, from, to, target, mask);
+          return true;
+        }
+        if (filter instanceof BatchFilter
+            && (filter instanceof Selections.Total || Selections.covers(mask, to - from))) {
+          ((BatchFilter<T>) filter).testBatch(terms, from, to, target);
+          return true;
+        }
+        return false;
+      }
+
+      @Override public boolean test(int clause, int index) {
+        return clauses[clause].test(terms[from + index]);
+      }
+    }, or, skip, to - from, selection, mask);
+  }
+}
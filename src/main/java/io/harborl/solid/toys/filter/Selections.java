@@ -0,0 +1,137 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * The helpers of selection bitmaps, a bitmap is a {@code long[]} whose bit
+ * <tt>i</tt> tells whether the term <tt>i</tt> of a block is selected.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class Selections {
+
+  private Selections() { }
+
+  /**
+   * A block of terms tested by the clauses of a condition chain.
+   */
+  interface Block {
+    /**
+     * Tests the block with a clause, if it has a batch form. A nested chain only
+     * tests the terms of the mask, the bits of the other terms are left undefined.
+     *
+     * @param mask the terms to test, or null for all of them
+     * @return false if the clause can only test term by term
+     */
+    boolean testBatch(int clause, long[] selection, long[] mask);
+
+    /** Tests the term at the index of block with a clause. */
+    boolean test(int clause, int index);
+  }
+
+  /**
+   * A batch filter free of side effects and defined for every term, which may
+   * test a whole block even if some of its terms are decided already.
+   */
+  interface Total { }
+
+  /** Returns whether a mask covers every term of a block. */
+  static boolean covers(long[] mask, int length) {
+    if (mask == null) {
+      return true;
+    }
+    for (int w = 0; w < wordsOf(length); w++) {
+      long tail = tailOf(w, length);
+      if ((mask[w] & tail) != tail) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number of words to hold the bits of a block. */
+  static int wordsOf(int length) {
+    return (length + 63) >>> 6;
+  }
+
+  static void checkRange(int arrayLength, int from, int to, long[] selection) {
+    if (from < 0 || to > arrayLength || from > to)
+      throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + arrayLength);
+    if (selection.length < wordsOf(to - from))
+      throw new IllegalArgumentException("selection too small: " + selection.length);
+  }
+
+  /**
+   * Evaluates a condition chain over a block from left to right, the results
+   * of clauses are combined with bitwise {@code and} / {@code or}.
+   * <p>
+   * A clause only tests the terms that are not decided yet, so it sees the same
+   * terms as the term by term evaluation. A nested chain takes them as its mask,
+   * and a batch filter tests the whole block only if none of its terms is decided
+   * or it is {@linkplain Total total}, otherwise the terms are tested one by one.
+   * A run of clauses is jumped over once every term is decided.
+   *
+   * @param mask the terms to evaluate, or null for the whole block
+   */
+  static void evaluate(Block block, boolean[] or, int[] skip, int length, long[] selection, long[] mask) {
+    final int words = wordsOf(length);
+    evaluateHeader(block, length, selection, mask);
+
+    long[] scratch = null;
+    long[] undecided = null;
+    int i = 1;
+    while (i < or.length) {
+      if (undecided == null) {
+        scratch = new long[words];
+        undecided = new long[words];
+      }
+      // An and clause decides the selected terms, an or clause the others.
+      boolean any = false;
+      for (int w = 0; w < words; w++) {
+        long open = or[i] ? ~selection[w] : selection[w];
+        undecided[w] = open & (mask == null ? -1L : mask[w]) & tailOf(w, length);
+        any |= undecided[w] != 0;
+      }
+      if (!any) {
+        i = skip[i];
+        continue;
+      }
+      if (block.testBatch(i, scratch, undecided)) {
+        for (int w = 0; w < words; w++) {
+          selection[w] = or[i] ? selection[w] | scratch[w] : selection[w] & scratch[w];
+        }
+      } else {
+        for (int w = 0; w < words; w++) {
+          for (long bits = undecided[w]; bits != 0; bits &= bits - 1) {
+            int index = (w << 6) + Long.numberOfTrailingZeros(bits);
+            if (block.test(i, index) == or[i]) {
+              selection[w] ^= Long.lowestOneBit(bits);
+            }
+          }
+        }
+      }
+      i++;
+    }
+  }
+
+  private static void evaluateHeader(Block block, int length, long[] selection, long[] mask) {
+    if (block.testBatch(0, selection, mask)) {
+      return;
+    }
+    final int words = wordsOf(length);
+    for (int w = 0; w < words; w++) {
+      selection[w] = 0;
+      long bits = (mask == null ? -1L : mask[w]) & tailOf(w, length);
+      for (; bits != 0; bits &= bits - 1) {
+        if (block.test(0, (w << 6) + Long.numberOfTrailingZeros(bits))) {
+          selection[w] |= Long.lowestOneBit(bits);
+        }
+      }
+    }
+  }
+
+  /** Returns the bits of a word within the block. */
+  private static long tailOf(int word, int length) {
+    int rest = length - (word << 6);
+    return rest >= 64 ? -1L : (1L << rest) - 1;
+  }
+}
@@ -0,0 +1,20 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * The receiving end of a {@linkplain Pipeline} stage.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the term type
+ */
+interface Sink<T> {
+
+  /**
+   * Takes a term pushed by the upstream.
+   * 
+   * @param t the term
+   * @return false if no more term is wanted, the upstream stops pushing then.
+   */
+  boolean accept(T t);
+}
@@ -3,8 +3,10 @@ package io.harborl.solid.toys.filter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A Stream is a collection wrapper that can be filtered with a {@linkplain Filter}.
@@ -12,9 +14,17 @@ import java.util.List;
  * <br>
  * The relevant operations are thread-safe if elements of collection are immutable.
  * <p>
+ * Besides collecting the whole result with {@code get}, the terminal operations
+ * {@code first}, {@code any}, {@code count} and {@code forEach} stop as soon as 
+ * the result is known, and {@linkplain #pipeline()} chains more lazy stages.
+ * <p>
+ * A large random-access collection can be filtered in parallel on a fork/join
+ * pool with {@linkplain #get(ForkJoinPool)}, the filter must be thread-safe then.
+ * <p>
  * <strong>Usage:</strong>
  * <pre>{@code
  * List<String> results = Stream.valueOf(samples).filter(filter).get();
+ * String first = Stream.wrap(samples).filter(filter).first();
  * }</pre>
  * 
  * @author Harbor Luo
@@ -24,22 +34,19 @@ import java.util.List;
  */
 public final class Stream<T> {
 
+  /** The min size of a collection to be split for parallel filtering. */
+  static final int PARALLEL_THRESHOLD = 8192;
+
   private final Collection<T> collection;
-  // Guarded by this
-  private Filter<T> filter;
+  /** The filter is replaced as a whole, a volatile reference is enough. */
+  private volatile Filter<T> filter;
   
   private Stream(Collection<T> collection) {
-    this.collection = 
-        Collections.unmodifiableCollection(new ArrayList<T>(collection));
+    this.collection = collection;
   }
 
-  private Stream(T[] collection) {
-    this.collection = 
-        Collections.unmodifiableCollection(new ArrayList<T>(Arrays.asList(collection)));
-  }
-  
   /** 
-   * Creates a Stream with a collection. 
+   * Creates a Stream with a copy of collection. 
    * 
    * @param collection the specified collection
    * @param <T> the collection entity type
@@ -47,20 +54,46 @@ public final class Stream<T> {
    */
   public static <T> Stream<T> valueOf(Collection<T> collection) {
     if (collection == null) throw new NullPointerException("collection == null");
-    return new Stream<T>(collection);
+    return new Stream<T>(new ArrayList<T>(collection));
   }
   
   /** 
-   * Creates a Stream with a collection. 
+   * Creates a Stream with a copy of collection. 
    * 
    * @param collection the specified collection
    * @param <T> the collection entity type
    * @return a stream instance.
    * */
   public static <T> Stream<T> valueOf(T[] collection) {
+    if (collection == null) throw new NullPointerException("collection == null");
+    return new Stream<T>(Arrays.asList(collection.clone()));
+  }
+
+  /** 
+   * Creates a Stream over a collection without copying it, 
+   * the caller guarantees that the collection is never changed.
+   * 
+   * @param collection the specified collection
+   * @param <T> the collection entity type
+   * @return a stream instance.
+   */
+  public static <T> Stream<T> wrap(Collection<T> collection) {
     if (collection == null) throw new NullPointerException("collection == null");
     return new Stream<T>(collection);
   }
+
+  /** 
+   * Creates a Stream over an array without copying it, 
+   * the caller guarantees that the array is never changed.
+   * 
+   * @param collection the specified collection
+   * @param <T> the collection entity type
+   * @return a stream instance.
+   */
+  public static <T> Stream<T> wrap(T[] collection) {
+    if (collection == null) throw new NullPointerException("collection == null");
+    return new Stream<T>(Arrays.asList(collection));
+  }
   
   /** 
    * Injects the filter operation. 
@@ -68,27 +101,156 @@ public final class Stream<T> {
    * @param filter the specified filter
    * @return a stream instance.
    */
-  public synchronized Stream<T> filter(Filter<T> filter) {
+  public Stream<T> filter(Filter<T> filter) {
     this.filter = filter;
     return this;
   }
 
+  /**
+   * Returns a lazy pipeline over the collection, which starts with 
+   * current filter operation if it exists. 
+   * 
+   * @return the pipeline
+   */
+  public Pipeline<T> pipeline() {
+    Filter<T> theFilter = this.filter;
+    Pipeline<T> source = Pipeline.of(collection);
+    return theFilter == null ? source : source.filter(theFilter);
+  }
+
   /** 
    * Filters and returns the collection result with a filter operation if it exists. 
    * @return the result collection.
    */
   public List<T> get() {
-    Filter<T> theFilter = null;
-    synchronized (this) {
-      theFilter = this.filter;
+    return pipeline().toList();
+  }
+
+  /** 
+   * Filters and returns the collection result in parallel on the default
+   * fork/join pool, see {@linkplain #get(ForkJoinPool)}.
+   * @return the result collection.
+   */
+  public List<T> getParallel() {
+    return get(DefaultPool.INSTANCE);
+  }
+
+  /** 
+   * Filters and returns the collection result in parallel on a fork/join pool.
+   * The collection is split into chunks filtered by the pool threads, and the 
+   * results are merged in the order of collection. A collection that is small
+   * or not random-access, or a pool of a single thread, is filtered on current thread.
+   * 
+   * @param pool the fork/join pool
+   * @return the result collection.
+   */
+  public List<T> get(ForkJoinPool pool) {
+    if (pool == null) throw new NullPointerException("pool == null");
+
+    Filter<T> theFilter = this.filter;
+    if (theFilter == null 
+        || pool.getParallelism() < 2
+        || collection.size() < PARALLEL_THRESHOLD 
+        || !(collection instanceof List && collection instanceof RandomAccess)) {
+      return get();
     }
 
-    List<T> target = new ArrayList<T>();
-    for (T t : collection) {
-      if (theFilter == null || theFilter.test(t)) {
-        target.add(t);
-      }
+    List<T> source = (List<T>) collection;
+    int size = source.size();
+    int chunkSize = Math.max(PARALLEL_THRESHOLD / 4, size / (pool.getParallelism() * 4));
+    int chunks = (size + chunkSize - 1) / chunkSize;
+    @SuppressWarnings("unchecked")
+    List<T>[] results = (List<T>[]) new List<?>[chunks];
+    pool.invoke(new Split<T>(source, theFilter, results, chunkSize, 0, chunks));
+
+    int total = 0;
+    for (List<T> result : results) {
+      total += result.size();
+    }
+    List<T> target = new ArrayList<T>(total);
+    for (List<T> result : results) {
+      target.addAll(result);
     }
     return target;
   }
+
+  /**
+   * A fork/join task filtering the chunks in range [from, to).
+   */
+  private static final class Split<T> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> source;
+    private final Filter<T> filter;
+    private final List<T>[] results;
+    private final int chunkSize;
+    private final int from;
+    private final int to;
+
+    Split(List<T> source, Filter<T> filter, List<T>[] results, int chunkSize, int from, int to) {
+      this.source = source;
+      this.filter = filter;
+      this.results = results;
+      this.chunkSize = chunkSize;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Split<T>(source, filter, results, chunkSize, from, middle),
+                  new Split<T>(source, filter, results, chunkSize, middle, to));
+        return;
+      }
+
+      int start = from * chunkSize;
+      int end = Math.min(source.size(), start + chunkSize);
+      List<T> result = new ArrayList<T>();
+      for (int i = start; i < end; i++) {
+        T t = source.get(i);
+        if (filter.test(t)) {
+          result.add(t);
+        }
+      }
+      results[from] = result;
+    }
+  }
+
+  /** The lazily created default pool, its threads are daemon ones. */
+  private static final class DefaultPool {
+    static final ForkJoinPool INSTANCE = new ForkJoinPool();
+  }
+
+  /** 
+   * Returns the first element passing the filter operation if it exists. 
+   * @return the first element, or null if there is none.
+   */
+  public T first() {
+    return pipeline().first();
+  }
+
+  /** 
+   * Returns whether any element passes the filter operation if it exists. 
+   * @return true if any element passes.
+   */
+  public boolean any() {
+    return pipeline().any();
+  }
+
+  /** 
+   * Counts the elements passing the filter operation if it exists. 
+   * @return the number of elements passing.
+   */
+  public long count() {
+    return pipeline().count();
+  }
+
+  /** 
+   * Visits the elements passing the filter operation if it exists. 
+   * @param visitor the visitor
+   */
+  public void forEach(Visitor<? super T> visitor) {
+    pipeline().forEach(visitor);
+  }
 }
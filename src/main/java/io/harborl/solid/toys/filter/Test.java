@@ -1,5 +1,12 @@
 package io.harborl.solid.toys.filter;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Test {
 
   public static void main(String[] args) {
@@ -23,6 +30,206 @@ public class Test {
 
     String[] samples = { "good", "morning", "sir", "male", "a" };
     System.out.println(Stream.valueOf(samples).filter(filter).get());
+
+    Expressions<String> expressions = new Expressions<String>()
+        .define("short", new Filter<String>() {
+          @Override public boolean test(String t) {
+            return t.length() <= 3;
+          }
+        })
+        .define("hasM", new Filter<String>() {
+          @Override public boolean test(String t) {
+            return t.contains("m");
+          }
+        });
+    System.out.println(Stream.valueOf(samples)
+        .filter(expressions.compile("!short && (hasM || short)")).get());
+
+    int[] numbers = { 3, 14, 15, 92, 65, 35, 89, 79 };
+    IntFilter oddOrLarge = IntCondition.newInstance(
+        new IntFilter() {
+          @Override public boolean test(int t) {
+            return (t & 1) == 1;
+          }
+        })
+        .or(new IntFilter() {
+          @Override public boolean test(int t) {
+            return t > 80;
+          }
+        });
+    System.out.println(Arrays.toString(IntStream.wrap(numbers).filter(oddOrLarge).get()));
+
+    // A nested condition in a batch only sees the terms passing the null guard.
+    Condition<String> guarded = Condition.newInstance(
+        new Filter<String>() {
+          @Override public boolean test(String t) {
+            return t != null;
+          }
+        })
+        .and(Condition.newInstance(
+            new Filter<String>() {
+              @Override public boolean test(String t) {
+                return t.startsWith("x");
+              }
+            })
+            .or(new Filter<String>() {
+              @Override public boolean test(String t) {
+                return t.length() > 3;
+              }
+            }));
+    String[] nullable = { "xa", null, "abcd" };
+    long[] selection = new long[1];
+    guarded.testBatch(nullable, 0, nullable.length, selection);
+    for (int i = 0; i < nullable.length; i++) {
+      boolean batch = (selection[0] & (1L << i)) != 0;
+      if (batch != guarded.test(nullable[i])) {
+        throw new AssertionError("batch and term by term differ at " + i);
+      }
+    }
+    System.out.println(Long.toBinaryString(selection[0]));
+
+    // A batch clause after a guard only sees the terms passing the guard.
+    Condition<String> nonEmpty = Condition.newInstance(
+        new Filter<String>() {
+          @Override public boolean test(String t) {
+            return t != null;
+          }
+        })
+        .and(new BatchFilter<String>() {
+          @Override public boolean test(String t) {
+            return !t.isEmpty();
+          }
+
+          @Override public void testBatch(String[] terms, int from, int to, long[] selection) {
+            Arrays.fill(selection, 0, (to - from + 63) >>> 6, 0L);
+            for (int i = from; i < to; i++) {
+              if (!terms[i].isEmpty()) selection[(i - from) >>> 6] |= 1L << (i - from);
+            }
+          }
+        });
+    String[] guardedBatch = { "x", null, "" };
+    nonEmpty.testBatch(guardedBatch, 0, guardedBatch.length, selection);
+    if (selection[0] != 1L || nonEmpty.test(null)) {
+      throw new AssertionError("guarded batch: " + Long.toBinaryString(selection[0]));
+    }
+
+    // A term changed between two tests is evaluated again out of a scope.
+    Filter<StringBuilder> empty = new Expressions<StringBuilder>()
+        .define("empty", new Filter<StringBuilder>() {
+          @Override public boolean test(StringBuilder t) {
+            return t.length() == 0;
+          }
+        })
+        .compile("empty || empty");
+    StringBuilder mutable = new StringBuilder();
+    boolean before = empty.test(mutable);
+    mutable.append('x');
+    if (!before || empty.test(mutable)) {
+      throw new AssertionError("stale result of a changed term");
+    }
+
+    adaptive();
+    parallel();
+  }
+
+  /**
+   * A parallel get keeps the encounter order and equals the sequential one,
+   * it runs on the pool threads only from the threshold on.
+   */
+  private static void parallel() {
+    final AtomicInteger pooled = new AtomicInteger();
+    Filter<Integer> notTriple = new Filter<Integer>() {
+      @Override public boolean test(Integer t) {
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+          pooled.incrementAndGet();
+        }
+        return t % 3 != 0;
+      }
+    };
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      int threshold = Stream.PARALLEL_THRESHOLD;
+      for (int size : new int[] { 100, threshold - 1, threshold, 100000 }) {
+        Integer[] terms = new Integer[size];
+        for (int i = 0; i < size; i++) {
+          terms[i] = i;
+        }
+        pooled.set(0);
+        List<Integer> parallel = Stream.valueOf(terms).filter(notTriple).get(pool);
+        boolean forked = pooled.get() > 0;
+        List<Integer> sequential = Stream.valueOf(terms).filter(notTriple).get();
+
+        if (!parallel.equals(sequential)) {
+          throw new AssertionError("parallel and sequential differ at size " + size);
+        }
+        for (int i = 1; i < parallel.size(); i++) {
+          if (parallel.get(i - 1) >= parallel.get(i)) {
+            throw new AssertionError("out of order at size " + size + ": " + parallel.get(i));
+          }
+        }
+        if (forked != (size >= threshold)) {
+          throw new AssertionError("size " + size + (forked ? " forked" : " not forked"));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * An adaptive chain moves the clauses only within the runs of the same operator,
+   * never across a pinned one, and always tests the same as the compiled chain.
+   */
+  private static void adaptive() {
+    // ((A && B && C) || D || E) && F && P && G, the cheap and decisive C, E and G
+    // are measured first once observed, but G can not move across the pinned P.
+    Condition<Integer> condition = Condition.newInstance(clause(200, 90))
+        .and(clause(100, 70)).and(clause(0, 20))
+        .or(clause(200, 5)).or(clause(0, 60))
+        .and(clause(200, 90)).and(clause(200, 95), Condition.Hint.ORDER_SENSITIVE).and(clause(0, 10));
+    AdaptiveProgram<Integer> adaptive = (AdaptiveProgram<Integer>) condition.adaptive();
+    int[][] runs = { {0, 1, 2}, {0, 1, 2}, {0, 1, 2}, {3, 4}, {3, 4}, {5}, {6}, {7} };
+
+    // The pass rates change with the bound of terms, so every phase reorders again.
+    Random random = new Random(42);
+    int cycle = AdaptiveProgram.SAMPLE_PERIOD * AdaptiveProgram.REORDER_PERIOD;
+    int[] bounds = { 100, 30, 100, 30 };
+    for (int phase = 0; phase < bounds.length; phase++) {
+      for (int i = 0; i < 2 * cycle; i++) {
+        Integer t = random.nextInt(bounds[phase]);
+        if (adaptive.test(t) != condition.test(t)) {
+          throw new AssertionError("adaptive and compiled differ at " + t + ", order: " 
+              + Arrays.toString(adaptive.order()));
+        }
+      }
+      int[] order = adaptive.order();
+      for (int i = 0; i < order.length; i++) {
+        if (Arrays.binarySearch(runs[i], order[i]) < 0) {
+          throw new AssertionError("clause moved out of its run: " + Arrays.toString(order));
+        }
+      }
+      if (order[0] != 2 || order[3] != 4) {
+        throw new AssertionError("not reordered: " + Arrays.toString(order));
+      }
+    }
+    System.out.println(Arrays.toString(adaptive.order()));
+  }
+
+  private static volatile int sink;
+
+  /** Returns a clause spinning to cost, which passes the terms below a bound. */
+  private static Filter<Integer> clause(final int spins, final int bound) {
+    return new Filter<Integer>() {
+      @Override public boolean test(Integer t) {
+        int x = t;
+        for (int i = 0; i < spins; i++) {
+          x = x * 31 + i;
+        }
+        sink = x;
+        return t < bound;
+      }
+    };
   }
 
 }
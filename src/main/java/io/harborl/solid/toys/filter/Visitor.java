@@ -0,0 +1,19 @@
+package io.harborl.solid.toys.filter;
+
+/**
+ * A visitor used to take the terms one by one.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <T> the term type
+ */
+public interface Visitor<T> {
+
+  /**
+   * Takes a term.
+   * 
+   * @param t the term
+   */
+  void visit(T t);
+}
@@ -0,0 +1,154 @@
+package io.harborl.solid.toys.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets.
+ * <p>
+ * The bucket <tt>i</tt> counts the latencies in range
+ * <tt>[2<sup>i-1</sup>, 2<sup>i</sup>)</tt> nanoseconds, so that the percentiles
+ * are reported with a relative error less than 2x, which is good enough to find
+ * the slow paths at the cost of an atomic increment per record.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class LatencyHistogram {
+
+  /** Bucket 0 holds the zero latency, bucket i holds [2^(i-1), 2^i). */
+  static final int BUCKETS = 65;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds, the negative one is taken as zero.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    counts.incrementAndGet(bucketOf(nanos));
+    totalNanos.addAndGet(nanos);
+  }
+
+  static int bucketOf(long nanos) {
+    return 64 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return the number of recorded latencies
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Takes a snapshot of current histogram. The records made during
+   * the snapshot may be seen partially.
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, totalNanos.get());
+  }
+
+  /**
+   * An immutable snapshot of a {@linkplain LatencyHistogram}.
+   */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+
+    Snapshot(long[] counts, long totalNanos) {
+      long count = 0;
+      for (long c : counts) {
+        count += c;
+      }
+      this.counts = counts;
+      this.count = count;
+      this.totalNanos = totalNanos;
+    }
+
+    /** @return the number of recorded latencies */
+    public long getCount() {
+      return count;
+    }
+
+    /** @return the sum of recorded latencies in nanoseconds */
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /** @return the mean latency in nanoseconds, or 0 if there is no record */
+    public long getMeanNanos() {
+      return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /** @return the median latency in nanoseconds */
+    public long getP50Nanos() {
+      return percentile(0.50);
+    }
+
+    /** @return the 99th percentile latency in nanoseconds */
+    public long getP99Nanos() {
+      return percentile(0.99);
+    }
+
+    /** @return the upper bound of the max latency in nanoseconds */
+    public long getMaxNanos() {
+      return percentile(1.0);
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the specified percentile.
+     *
+     * @param quantile the percentile in range [0, 1]
+     * @return the latency in nanoseconds, or 0 if there is no record.
+     */
+    public long percentile(double quantile) {
+      if (quantile < 0 || quantile > 1)
+        throw new IllegalArgumentException("quantile out of [0, 1]");
+      if (count == 0) {
+        return 0;
+      }
+
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return upperBoundOf(i);
+        }
+      }
+      return upperBoundOf(counts.length - 1);
+    }
+
+    static long upperBoundOf(int bucket) {
+      return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /** @return a copy of the bucket counts */
+    public long[] getBuckets() {
+      return counts.clone();
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", mean=" + getMeanNanos() + "ns, p50<=" + getP50Nanos()
+          + "ns, p99<=" + getP99Nanos() + "ns, max<=" + getMaxNanos() + "ns";
+    }
+  }
+}
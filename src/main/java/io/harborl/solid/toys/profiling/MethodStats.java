@@ -0,0 +1,45 @@
+package io.harborl.solid.toys.profiling;
+
+/**
+ * An immutable snapshot of the calls of a method watched by {@linkplain TimeWatcher}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class MethodStats {
+
+  private final String name;
+  private final LatencyHistogram.Snapshot latency;
+  private final long errors;
+
+  MethodStats(String name, LatencyHistogram.Snapshot latency, long errors) {
+    this.name = name;
+    this.latency = latency;
+    this.errors = errors;
+  }
+
+  /** @return the name of the method, as <tt>Class.method</tt> */
+  public String getName() {
+    return name;
+  }
+
+  /** @return the number of calls */
+  public long getCalls() {
+    return latency.getCount();
+  }
+
+  /** @return the number of calls ending with an exception */
+  public long getErrors() {
+    return errors;
+  }
+
+  /** @return the time costs of all the calls */
+  public LatencyHistogram.Snapshot getLatency() {
+    return latency;
+  }
+
+  @Override
+  public String toString() {
+    return name + ": calls=" + getCalls() + ", errors=" + errors + ", " + latency;
+  }
+}
@@ -0,0 +1,71 @@
+package io.harborl.solid.toys.profiling;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free striped recorder of latencies and errors.
+ * <p>
+ * Every thread records into the stripe of its id, so the threads rarely 
+ * contend on the same cells. A snapshot sums up all the stripes, and it may
+ * reset them for interval reporting, a record made during the snapshot is 
+ * either in this interval or the next one, or split between them.
+ *
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class Recorder {
+
+  private static final int STRIPES = stripes();
+  private static final int TOTAL = LatencyHistogram.BUCKETS;
+  private static final int ERRORS = TOTAL + 1;
+  private static final int CELLS = ERRORS + 1;
+
+  private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+  Recorder() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new AtomicLongArray(CELLS);
+    }
+  }
+
+  /** Returns the power of two no less than twice the processors, at most 64. */
+  private static int stripes() {
+    int wanted = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+    return Integer.highestOneBit(Math.max(1, wanted - 1)) << 1;
+  }
+
+  /**
+   * Records a call.
+   *
+   * @param nanos the latency in nanoseconds, the negative one is taken as zero.
+   * @param failed whether the call ends with an exception
+   */
+  void record(long nanos, boolean failed) {
+    if (nanos < 0) nanos = 0;
+    AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+    stripe.incrementAndGet(LatencyHistogram.bucketOf(nanos));
+    stripe.addAndGet(TOTAL, nanos);
+    if (failed) {
+      stripe.incrementAndGet(ERRORS);
+    }
+  }
+
+  /**
+   * Sums up the stripes.
+   *
+   * @param reset whether to reset the stripes for the next interval
+   */
+  MethodStats snapshot(String name, boolean reset) {
+    long[] counts = new long[LatencyHistogram.BUCKETS];
+    long total = 0;
+    long errors = 0;
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+        counts[i] += reset ? stripe.getAndSet(i, 0) : stripe.get(i);
+      }
+      total += reset ? stripe.getAndSet(TOTAL, 0) : stripe.get(TOTAL);
+      errors += reset ? stripe.getAndSet(ERRORS, 0) : stripe.get(ERRORS);
+    }
+    return new MethodStats(name, new LatencyHistogram.Snapshot(counts, total), errors);
+  }
+}
@@ -0,0 +1,99 @@
+package io.harborl.solid.toys.profiling;
+
+import io.harborl.solid.toys.batch.Action;
+import io.harborl.solid.toys.batch.Context;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+
+
+public class Test {
+
+  private static final int CALLS = 5000000;
+  
+  public static void main(String[] args) throws Exception {
+    /* ----------------------------------------------------------------------
+     * Overhead : Compares the watched calls with the direct ones.
+     * ----------------------------------------------------------------------
+     */
+    Callable<Long> direct = new Callable<Long>() {
+      private long n;
+
+      @Override
+      public Long call() {
+        return n++;
+      }
+    };
+    @SuppressWarnings("unchecked")
+    Callable<Long> watched = TimeWatcher.with(direct);
+
+    for (int round = 0; round < 5; round++) {
+      long directNanos = run(direct);
+      long watchedNanos = run(watched);
+      System.out.printf("direct: %.1fns/call, watched: %.1fns/call, overhead: %.1fns/call%n",
+          (double) directNanos / CALLS, (double) watchedNanos / CALLS, 
+          (double) (watchedNanos - directNanos) / CALLS);
+      TimeWatcher.takeInterval();
+    }
+
+    /* ----------------------------------------------------------------------
+     * Wrapper : An action is watched by a plain wrapper without the proxy.
+     * ----------------------------------------------------------------------
+     */
+    Action action = new Action() {
+      @Override
+      public String apply(Context context) {
+        return "{}";
+      }
+
+      @Override
+      public String path() {
+        return "/test";
+      }
+    };
+    Action proxied = TimeWatcher.with(action);
+    Action wrapped = TimeWatcher.watch(action);
+    Context context = new Context.Builder().path("/test").build();
+    for (int round = 0; round < 3; round++) {
+      long proxiedNanos = apply(proxied, context);
+      long wrappedNanos = apply(wrapped, context);
+      System.out.printf("proxied action: %.1fns/call, wrapped action: %.1fns/call%n",
+          (double) proxiedNanos / CALLS, (double) wrappedNanos / CALLS);
+    }
+
+    // An action of other interfaces as well keeps them.
+    class ClosableAction implements Action, Closeable {
+      @Override public String apply(Context context) { return "{}"; }
+      @Override public String path() { return "/closable"; }
+      @Override public void close() { }
+    }
+    if (!(TimeWatcher.watch(new ClosableAction()) instanceof Closeable)) {
+      throw new AssertionError("the interfaces of a watched action are lost");
+    }
+
+    /* ----------------------------------------------------------------------
+     * Reporting : Dumps the stats of current interval.
+     * ----------------------------------------------------------------------
+     */
+    run(watched);
+    TimeWatcher.expose();
+    System.out.print(TimeWatcher.dump());
+  }
+
+  private static long apply(Action action, Context context) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      action.apply(context);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long run(Callable<Long> callable) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      callable.call();
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -1,21 +1,75 @@
 package io.harborl.solid.toys.profiling;
 
+import io.harborl.solid.toys.batch.Action;
+import io.harborl.solid.toys.batch.Context;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * A profiling class used to measure time cost of the real action.
+ * <p>
+ * Every call of a watched method is recorded into a lock-free striped recorder
+ * of the method, which counts the latency histogram and the errors. The method
+ * is named by the full name of the action class, its name and parameter types, 
+ * e.g. <tt>com.example.Job.call(java.lang.String, int[])</tt>, so the same method
+ * of the different actions and the overloads are told apart, and the watchers of
+ * the same class share the recorder.
+ * <p>
+ * The stats are of the current interval, which starts on the first call or the
+ * last {@linkplain #takeInterval()}. They are exported with a {@linkplain #dump() text dump},
+ * and through JMX once {@linkplain #expose() exposed}.
+ * <p>
+ * An {@linkplain Action} is better watched by {@linkplain #watch(Action)}, which
+ * is a plain wrapper without the proxy, the argument array and the boxing.
+ * 
+ * @author Harbor Luo
+ * @since 0.0.1
  */
 public class TimeWatcher implements InvocationHandler {
+
+  /** The JMX name of all the watched methods. */
+  static final String MBEAN_NAME = "io.harborl.solid.toys.profiling:type=TimeWatcher";
+
+  private static final Object[] NO_ARGS = new Object[0];
+
+  private static final ConcurrentMap<String, Recorder> recorders = 
+      new ConcurrentHashMap<String, Recorder>();
   
   private final Object action;
+  /** The invokers of the methods called, looked up by the method on every call. */
+  private final ConcurrentMap<Method, Invoker> methods = new ConcurrentHashMap<Method, Invoker>();
+
   private TimeWatcher(Object action) {
     this.action = action;
   }
   
   /** 
    * On behalf of an action to run and measure the time meanwhile.
+   * <p>
+   * The returned instance is a proxy of all the interfaces of the action class 
+   * and its super classes. A call is forwarded through a method handle, so an 
+   * exception thrown by the action is thrown as it is, not wrapped.
    * 
    * @param action the action need to measure the run time
    * @param <T> the action type
@@ -24,20 +78,219 @@ public class TimeWatcher implements InvocationHandler {
    */
   @SuppressWarnings("unchecked")
   public static <T> T with(T action) {
+    if (action == null) throw new NullPointerException("action == null");
     return (T)new TimeWatcher(action).bind();
   }
 
+  /** 
+   * On behalf of an {@linkplain Action} to run and measure the time meanwhile,
+   * without the proxy and its allocation per call. Only {@code apply} is measured.
+   * <p>
+   * The wrapper implements {@linkplain Action} only, so an action implementing 
+   * other interfaces as well is watched by the proxy of {@linkplain #with(Object)}
+   * instead, which keeps all of them.
+   * 
+   * @param action the action need to measure the run time
+   * 
+   * @return returns the decorated instance.
+   */
+  public static Action watch(Action action) {
+    if (action == null) throw new NullPointerException("action == null");
+    if (interfacesOf(action.getClass()).length > 1) {
+      return with(action);
+    }
+    return new WatchedAction(action, recorderOf(nameOf(action.getClass(), "apply", Context.class)));
+  }
+
   private Object bind() {
     return Proxy.newProxyInstance(
         this.action.getClass().getClassLoader(), 
-        this.action.getClass().getInterfaces(),
+        interfacesOf(this.action.getClass()),
         this);
   }
 
+  /** Returns the interfaces of a class and all its super classes. */
+  static Class<?>[] interfacesOf(Class<?> type) {
+    Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      interfaces.addAll(Arrays.asList(c.getInterfaces()));
+    }
+    return interfaces.toArray(new Class<?>[interfaces.size()]);
+  }
+
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    // profiling stuff put here
-    return method.invoke(this.action, args);
+    if (method.getDeclaringClass() == Object.class) {
+      try {
+        return method.invoke(this.action, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    Invoker invoker = invokerOf(method);
+    boolean failed = true;
+    long start = System.nanoTime();
+    try {
+      Object result = invoker.handle.invokeExact(args == null ? NO_ARGS : args);
+      failed = false;
+      return result;
+    } finally {
+      invoker.recorder.record(System.nanoTime() - start, failed);
+    }
+  }
+
+  private Invoker invokerOf(Method method) throws IllegalAccessException {
+    Invoker invoker = methods.get(method);
+    if (invoker == null) {
+      // A public method of a non-public interface is still checked for access.
+      method.setAccessible(true);
+      MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(action)
+          .asSpreader(Object[].class, method.getParameterTypes().length)
+          .asType(MethodType.methodType(Object.class, Object[].class));
+      invoker = new Invoker(handle, 
+          recorderOf(nameOf(action.getClass(), method.getName(), method.getParameterTypes())));
+      methods.put(method, invoker);
+    }
+    return invoker;
+  }
+
+  private static Recorder recorderOf(String name) {
+    Recorder recorder = recorders.get(name);
+    if (recorder == null) {
+      Recorder created = new Recorder();
+      recorder = recorders.putIfAbsent(name, created);
+      if (recorder == null) {
+        recorder = created;
+      }
+    }
+    return recorder;
+  }
+
+  /** A bound method handle taking the arguments array, and the recorder of the method. */
+  private static final class Invoker {
+    final MethodHandle handle;
+    final Recorder recorder;
+
+    Invoker(MethodHandle handle, Recorder recorder) {
+      this.handle = handle;
+      this.recorder = recorder;
+    }
+  }
+
+  /** Returns the name of a method of a class, see the class doc. */
+  static String nameOf(Class<?> type, String method, Class<?>... parameters) {
+    StringBuilder name = new StringBuilder(type.getName()).append('.').append(method).append('(');
+    for (int i = 0; i < parameters.length; i++) {
+      if (i > 0) name.append(", ");
+      Class<?> parameter = parameters[i];
+      int dimensions = 0;
+      for (; parameter.isArray(); parameter = parameter.getComponentType()) {
+        dimensions++;
+      }
+      name.append(parameter.getName());
+      for (; dimensions > 0; dimensions--) {
+        name.append("[]");
+      }
+    }
+    return name.append(')').toString();
+  }
+
+  /**
+   * Returns the stats of the current interval.
+   * 
+   * @return the stats by method name, in the order of names
+   */
+  public static Map<String, MethodStats> snapshot() {
+    return snapshot(false);
+  }
+
+  /**
+   * Returns the stats of the current interval, and starts a new interval.
+   * 
+   * @return the stats by method name, in the order of names
+   */
+  public static Map<String, MethodStats> takeInterval() {
+    return snapshot(true);
+  }
+
+  private static Map<String, MethodStats> snapshot(boolean reset) {
+    Map<String, MethodStats> stats = new TreeMap<String, MethodStats>();
+    for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().snapshot(entry.getKey(), reset));
+    }
+    return stats;
+  }
+
+  /**
+   * Returns the text dump of the current interval, one method a line, 
+   * the method of the most total time goes first.
+   * 
+   * @return the text dump
+   */
+  public static String dump() {
+    return dump(snapshot().values());
+  }
+
+  static String dump(Iterable<MethodStats> stats) {
+    List<MethodStats> sorted = new ArrayList<MethodStats>();
+    for (MethodStats s : stats) {
+      sorted.add(s);
+    }
+    Collections.sort(sorted, new Comparator<MethodStats>() {
+      @Override
+      public int compare(MethodStats a, MethodStats b) {
+        long x = a.getLatency().getTotalNanos();
+        long y = b.getLatency().getTotalNanos();
+        return x < y ? 1 : (x == y ? a.getName().compareTo(b.getName()) : -1);
+      }
+    });
+
+    // The method column fits the longest name.
+    int width = "method".length();
+    for (MethodStats s : sorted) {
+      width = Math.max(width, s.getName().length());
+    }
+    StringBuilder dump = new StringBuilder(String.format("%-" + width + "s %10s %8s %12s %12s %12s %12s%n", 
+        "method", "calls", "errors", "total(us)", "mean(ns)", "p99(ns)", "max(ns)"));
+    String row = "%-" + width + "s %10d %8d %12d %12d %12d %12d%n";
+    for (MethodStats s : sorted) {
+      LatencyHistogram.Snapshot latency = s.getLatency();
+      dump.append(String.format(row, s.getName(), s.getCalls(), 
+          s.getErrors(), latency.getTotalNanos() / 1000, latency.getMeanNanos(), 
+          latency.getP99Nanos(), latency.getMaxNanos()));
+    }
+    return dump.toString();
+  }
+
+  /**
+   * Registers the stats as the platform MXBean {@value #MBEAN_NAME}, 
+   * it does nothing if it is exposed already.
+   * 
+   * @throws IllegalStateException if it can not be registered.
+   */
+  public static synchronized void expose() {
+    try {
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), name);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException("can not expose as " + MBEAN_NAME, e);
+    }
+  }
+
+  private static final class MXBean implements TimeWatcherMXBean {
+    @Override public Map<String, MethodStats> getMethods() {
+      return snapshot();
+    }
+
+    @Override public Map<String, MethodStats> takeInterval() {
+      return TimeWatcher.takeInterval();
+    }
+
+    @Override public String dump() {
+      return TimeWatcher.dump();
+    }
   }
-  
 }
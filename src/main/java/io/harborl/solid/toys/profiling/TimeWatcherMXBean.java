@@ -0,0 +1,22 @@
+package io.harborl.solid.toys.profiling;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of {@linkplain TimeWatcher}, 
+ * see {@linkplain MethodStats} for the meaning of every attribute.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public interface TimeWatcherMXBean {
+
+  /** @return the stats of the current interval by method name */
+  Map<String, MethodStats> getMethods();
+
+  /** @return the stats of the current interval by method name, and starts a new interval */
+  Map<String, MethodStats> takeInterval();
+
+  /** @return the text dump of the current interval */
+  String dump();
+}
@@ -0,0 +1,20 @@
+package io.harborl.solid.toys.switcher;
+
+/**
+ * A listener of the value changes of a remote switcher.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ *
+ * @param <V> the value type
+ */
+public interface ChangeListener<V> {
+
+  /**
+   * Called when the value changes, it is never called with equal values.
+   * 
+   * @param oldValue the value before the change
+   * @param newValue the value after the change
+   */
+  void changed(V oldValue, V newValue);
+}
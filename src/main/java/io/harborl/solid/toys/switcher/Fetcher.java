@@ -0,0 +1,184 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+
+/**
+ * A conditional fetcher of a remote text content.
+ * <p>
+ * The validators of the last fetched content, its {@code ETag} and 
+ * {@code Last-Modified}, are sent with the next request, so an unchanged 
+ * content costs a <tt>304 Not Modified</tt> response without body. A content
+ * equal to the last one is taken as not modified as well.
+ * <p>
+ * A fetched content and its validators take effect only once it is
+ * {@linkplain #commit() committed} after being applied, so a content failing to
+ * be applied is fetched again instead of being taken as not modified.
+ * <p>
+ * In the long poll mode, a request with the {@code ETag} also sends 
+ * <tt>Prefer: wait=N</tt>, a server supporting it answers as soon as the content
+ * changes, or with a <tt>304</tt> after <tt>N</tt> seconds.
+ * <p>
+ * An instance is used by one poll loop at a time, it is not thread-safe.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class Fetcher {
+
+  static final Charset UTF_8 = Charset.forName("utf-8");
+
+  static final int CONNECT_TIMEOUT_MILLIS = 5000;
+  static final int READ_TIMEOUT_MILLIS = 10000;
+
+  private final URL url;
+  private final int waitSeconds;
+  private String etag;
+  private String lastModified;
+  private String last;
+  /** The fetched content and its validators waiting for the commit. */
+  private String pending;
+  private String pendingEtag;
+  private String pendingLastModified;
+
+  Fetcher(URL url) {
+    this(url, 0);
+  }
+
+  /**
+   * @param waitSeconds the seconds a server may hold a long poll, or 0 to poll regularly
+   */
+  Fetcher(URL url, int waitSeconds) {
+    this.url = url;
+    this.waitSeconds = waitSeconds;
+  }
+
+  boolean isLongPoll() {
+    return waitSeconds > 0;
+  }
+
+  URL url() {
+    return url;
+  }
+
+  String etag() {
+    return etag;
+  }
+
+  String lastModified() {
+    return lastModified;
+  }
+
+  /** Returns the last committed or restored content, or null. */
+  String content() {
+    return last;
+  }
+
+  /**
+   * Restores the last content and its validators, e.g. from a snapshot,
+   * so the next fetch is conditional.
+   */
+  void restore(String content, String etag, String lastModified) {
+    this.last = content;
+    this.etag = etag;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Takes the content returned by the last {@linkplain #fetch()} and its validators
+   * as the current ones, which is called after the content is applied.
+   */
+  void commit() {
+    last = pending;
+    etag = pendingEtag;
+    lastModified = pendingLastModified;
+    pending = null;
+  }
+
+  /**
+   * Fetches the content if it is modified since the last commit.
+   * 
+   * @return the content, or null if it is not modified
+   * @throws IOException if the content can not be fetched
+   */
+  String fetch() throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    if (!(connection instanceof HttpURLConnection)) {
+      return modified(read(connection.getInputStream()), null, null);
+    }
+
+    HttpURLConnection http = (HttpURLConnection) connection;
+    http.setUseCaches(false);
+    if (etag != null) http.setRequestProperty("If-None-Match", etag);
+    if (lastModified != null) http.setRequestProperty("If-Modified-Since", lastModified);
+    if (waitSeconds > 0 && etag != null) {
+      // The server holds the request till the content changes or the wait ends.
+      http.setRequestProperty("Prefer", "wait=" + waitSeconds);
+      http.setReadTimeout(READ_TIMEOUT_MILLIS + waitSeconds * 1000);
+    }
+    try {
+      int status = http.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return null;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException("unexpected status " + status + " of " + url);
+      }
+      String body = read(http.getInputStream());
+      return modified(body, http.getHeaderField("ETag"), http.getHeaderField("Last-Modified"));
+    } finally {
+      drain(http);
+    }
+  }
+
+  /**
+   * Returns the content to be committed, or null if it equals the last one, for the
+   * servers without validators. The validators of an unchanged content are taken at once.
+   */
+  private String modified(String content, String etag, String lastModified) {
+    if (content.equals(last)) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      return null;
+    }
+    pending = content;
+    pendingEtag = etag;
+    pendingLastModified = lastModified;
+    return content;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) >= 0; ) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Drains the error stream, so that the connection can be kept alive. */
+  private static void drain(HttpURLConnection http) {
+    InputStream error = http.getErrorStream();
+    if (error == null) {
+      return;
+    }
+    try {
+      byte[] buffer = new byte[512];
+      while (error.read(buffer) >= 0) { }
+      error.close();
+    } catch (IOException ignored) {
+      // The connection is just not reused.
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package io.harborl.solid.toys.switcher;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timer scheduler shared by all the switchers of a JVM.
+ * <p>
+ * It uses a few daemon threads that don't block the JVM stopping,
+ * that is to say, it will shutdown automatically when the JVM exits.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class Keeper {
+
+  /** The number of keeper threads, a fetch blocks a thread during its I/O. */
+  static final int THREADS = 2;
+
+  private Keeper() { }
+
+  private static final class Holder {
+    static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+  }
+
+  /** The threads of blocking long polls, which would starve the scheduler. */
+  private static final class LongPolls {
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger sequence = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "[RemoteSwitcher] - long-poll - " + sequence.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  private static ScheduledThreadPoolExecutor newScheduler() {
+    final AtomicInteger sequence = new AtomicInteger();
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "[RemoteSwitcher] - keeper - " + sequence.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  /**
+   * Schedules a one-shot task, a periodic task reschedules itself.
+   * 
+   * @param task the task
+   * @param delay the delay
+   * @param unit the time unit of delay
+   */
+  static void schedule(Runnable task, long delay, TimeUnit unit) {
+    Holder.SCHEDULER.schedule(task, delay, unit);
+  }
+
+  /**
+   * Schedules a one-shot blocking task, which runs on its own thread when it is due.
+   * 
+   * @param task the task
+   * @param delay the delay
+   * @param unit the time unit of delay
+   */
+  static void scheduleBlocking(final Runnable task, long delay, TimeUnit unit) {
+    if (delay <= 0) {
+      LongPolls.EXECUTOR.execute(task);
+      return;
+    }
+    schedule(new Runnable() {
+      @Override
+      public void run() {
+        LongPolls.EXECUTOR.execute(task);
+      }
+    }, delay, unit);
+  }
+}
@@ -0,0 +1,185 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A self-rescheduling poll loop on the shared {@linkplain Keeper}.
+ * <p>
+ * The polls are jittered by up to {@value #JITTER_PERCENT}% of the delay, so
+ * that the switchers created together don't poll together. After a failure, 
+ * the delay doubles till {@value #MAX_BACKOFF} times of the regular delay, 
+ * and it turns back to the regular delay on the next success.
+ * <p>
+ * A content applied successfully is kept in the {@linkplain SnapshotFile} if 
+ * there is one, which is applied again on the start of the next run. An unchanged
+ * content is saved again at most once per {@value #CONFIRM_SAVE_MILLIS}ms, so the 
+ * restored age is the time since the last confirmation, give or take that. A 
+ * content failing to be applied is a poll failure, it is fetched again by the 
+ * next poll and never replaces or confirms the last known good one.
+ * <p>
+ * In the long poll mode, a poll runs on its own thread instead of the keeper, 
+ * and the next poll starts at once after a changed content. After an unchanged 
+ * one, it starts as soon as the regular delay passes since the start of the last
+ * poll, which the server holding the request has used up already, and a server
+ * ignoring the long polls is still polled at the regular delay.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+abstract class Poller implements Runnable {
+
+  static final int JITTER_PERCENT = 10;
+  static final int MAX_BACKOFF = 32;
+
+  private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+  /** The min interval of saving the confirmations of an unchanged content. */
+  static final long CONFIRM_SAVE_MILLIS = 60 * 1000;
+
+  private static final Logger logger = Logger.getLogger(RemoteSwitcher.class.getName());
+
+  private final Fetcher fetcher;
+  /** The last known good content, or null if it is not kept. */
+  private final SnapshotFile snapshotFile;
+  private final long delayNanos;
+  /** Only accessed by the running poll. */
+  private int failures;
+  /** The epoch millis of the last saved snapshot, only accessed by the running poll. */
+  private long savedAt;
+
+  /** The epoch millis when the content was last fetched or confirmed, or -1. */
+  private volatile long confirmedAt = -1;
+  /** Whether the content is confirmed by a poll of this run. */
+  private volatile boolean polled;
+
+  Poller(Fetcher fetcher, SnapshotFile snapshotFile, long delay, TimeUnit unit) {
+    this.fetcher = fetcher;
+    this.snapshotFile = snapshotFile;
+    this.delayNanos = unit.toNanos(delay);
+  }
+
+  /**
+   * Applies the last known good content if there is a snapshot, 
+   * and starts the poll loop.
+   */
+  void start(long initialDelay, TimeUnit unit) {
+    if (snapshotFile != null) {
+      restore();
+    }
+    schedule(unit.toNanos(initialDelay));
+  }
+
+  private void restore() {
+    try {
+      SnapshotFile.Snapshot snapshot = snapshotFile.read();
+      if (snapshot == null) {
+        return;
+      }
+      apply(snapshot.content);
+      fetcher.restore(snapshot.content, snapshot.etag, snapshot.lastModified);
+      confirmedAt = snapshot.fetchedAt;
+      savedAt = snapshot.fetchedAt;
+      logger.log(Level.INFO, "{0} is restored from {1}, fetched {2,number,#}ms ago", new Object[] { 
+          fetcher.url(), snapshotFile.file(), System.currentTimeMillis() - snapshot.fetchedAt });
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "failed to restore " + fetcher.url() + " from " + snapshotFile.file(), e);
+    }
+  }
+
+  /** Returns the epoch millis when the content was last fetched or confirmed, or -1. */
+  long confirmedAt() {
+    return confirmedAt;
+  }
+
+  /** Returns whether the content is confirmed by a poll since the start. */
+  boolean isPolled() {
+    return polled;
+  }
+
+  private void schedule(long delayNanos) {
+    if (fetcher.isLongPoll()) {
+      Keeper.scheduleBlocking(this, delayNanos, TimeUnit.NANOSECONDS);
+    } else {
+      Keeper.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Applies a fetched content.
+   * 
+   * @param content the modified content
+   * @throws Exception if the content is malformed
+   */
+  abstract void apply(String content) throws Exception;
+
+  /*
+   * We suppress all of exceptions just to makes sure the poll 
+   * loop be going-on, no matter what kind of error happens.
+   */
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    boolean changed = false;
+    try {
+      String content = fetcher.fetch();
+      changed = content != null;
+      if (changed) {
+        // A content failing here is neither committed nor saved, and fetched again.
+        apply(content);
+        fetcher.commit();
+        save(content);
+      } else {
+        logger.log(Level.FINEST, "{0} is not modified", fetcher.url());
+        if (System.currentTimeMillis() - savedAt >= CONFIRM_SAVE_MILLIS && fetcher.content() != null) {
+          save(fetcher.content());
+        }
+      }
+      confirmedAt = System.currentTimeMillis();
+      polled = true;
+      failures = 0;
+    } catch (Throwable t) {
+      // The stack trace is reported once for a run of failures.
+      if (failures++ == 0) {
+        logger.log(Level.WARNING, "failed to poll " + fetcher.url(), t);
+      } else {
+        logger.log(Level.WARNING, "failed to poll {0}, failures: {1}, {2}", 
+            new Object[] { fetcher.url(), failures, t });
+      }
+    }
+    schedule(nextDelayNanos(changed, System.nanoTime() - start));
+  }
+
+  /** Keeps the applied content, a failure here is not a poll failure. */
+  private void save(String content) {
+    if (snapshotFile == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    // A failed save is retried no sooner than a confirmation.
+    savedAt = now;
+    try {
+      snapshotFile.write(new SnapshotFile.Snapshot(
+          content, fetcher.etag(), fetcher.lastModified(), now));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "failed to save " + fetcher.url() + " to " + snapshotFile.file(), e);
+    }
+  }
+
+  private long nextDelayNanos(boolean changed, long elapsed) {
+    long delay = delayNanos;
+    if (failures == 0 && fetcher.isLongPoll()) {
+      return changed ? 0 : Math.max(0, delay - elapsed);
+    }
+    if (failures > 0) {
+      delay *= Math.min(MAX_BACKOFF, 1L << Math.min(failures, 30));
+    }
+    // Keeps away from overflow on a huge delay.
+    delay = delay < 0 || delay > MAX_DELAY_NANOS ? MAX_DELAY_NANOS : delay;
+    long jitter = delay / 100 * JITTER_PERCENT;
+    return jitter > 0 ? delay - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1) : delay;
+  }
+}
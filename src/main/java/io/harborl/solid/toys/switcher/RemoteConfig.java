@@ -0,0 +1,307 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A remote configuration of many typed keys, which is fetched from a URL
+ * regularly like {@linkplain RemoteSwitcher}.
+ * <p>
+ * The document is in the format of <tt>java.util.Properties</tt>, e.g.
+ * <pre>
+ * mail.batch = 200
+ * mail.ratio = 0.75
+ * mail.sender = noreply@example.com
+ * feature.search = true
+ * feature.checkout = 12.5%
+ * </pre>
+ * A value is read as the type asked for, and the default value is returned if
+ * the key is absent or its value is not of that type. A feature value is either 
+ * a boolean or a percentage of users, see {@linkplain #isEnabled(String, long)}.
+ * <p>
+ * Every fetched document is parsed into an immutable snapshot, which is swapped
+ * in atomically, so a read is a lock-free map lookup without any allocation.
+ * A malformed document is logged and the last snapshot is kept.
+ * <p>
+ * The last fetched document can be kept on local disk like {@linkplain RemoteSwitcher},
+ * and it is loaded before the first fetch, see 
+ * {@linkplain #instanceOf(String, long, long, TimeUnit, File)}.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class RemoteConfig {
+
+  private static final Logger logger = Logger.getLogger(RemoteConfig.class.getName());
+
+  /** The number of rollout buckets, a bucket is 0.01% of users. */
+  static final int BUCKETS = 10000;
+
+  private final URL theURL;
+
+  /** 
+   * Guarded by the <tt>AtomicReference</tt> 
+   */
+  private final AtomicReference<Map<String, Entry>> snapshot;
+
+  private RemoteConfig(String url, long initialDelay, long delay, TimeUnit unit, File snapshotDirectory) {
+    if (url == null || unit == null) throw new NullPointerException();
+    if (delay <= 0 || initialDelay < 0) throw new IllegalArgumentException();
+
+    try {
+      this.theURL = new URL(url);
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+    this.snapshot = new AtomicReference<Map<String, Entry>>(Collections.<String, Entry>emptyMap());
+
+    SnapshotFile snapshotFile = snapshotDirectory == null ? null : SnapshotFile.of(snapshotDirectory, theURL);
+    new Poller(new Fetcher(theURL), snapshotFile, delay, unit) {
+
+      @Override
+      void apply(String document) throws IOException {
+        snapshot.set(parse(document));
+        logger.log(Level.INFO, "{0} is updated", theURL);
+      }
+
+    }.start(initialDelay, unit);
+  }
+
+  private static final ConcurrentMap<String, FutureTask<RemoteConfig>> fTable = 
+      new ConcurrentHashMap<String, FutureTask<RemoteConfig>>();
+
+  /**
+   * Returns the singleton instance of specified URL, see 
+   * {@linkplain RemoteSwitcher#instanceOf(String, boolean, long, long, TimeUnit)}.
+   * The snapshot is kept in the directory of the system property 
+   * <tt>io.harborl.solid.toys.switcher.snapshots</tt> if it is set.
+   * 
+   * @param url the underlying well-formated URL for fetching the document
+   * @param initialDelay the initial delay of scheduler
+   * @param delay the regular delay of scheduler
+   * @param unit the measurement unit of delay
+   * @return the singleton instance of specified URL or null if current thread 
+   * interrupts during the creation phrase.
+   */
+  public static RemoteConfig 
+  instanceOf(String url, long initialDelay, long delay, TimeUnit unit) {
+    return instanceOf(url, initialDelay, delay, unit, SnapshotFile.defaultDirectory());
+  }
+
+  /**
+   * Returns the singleton instance of specified URL, which keeps the last fetched
+   * document in a snapshot directory, see 
+   * {@linkplain RemoteSwitcher.Builder#snapshotDirectory(File)}. The options of 
+   * the first call for a URL take effect.
+   * 
+   * @param url the underlying well-formated URL for fetching the document
+   * @param initialDelay the initial delay of scheduler
+   * @param delay the regular delay of scheduler
+   * @param unit the measurement unit of delay
+   * @param snapshotDirectory the directory of the snapshots, or null not to keep them
+   * @return the singleton instance of specified URL or null if current thread 
+   * interrupts during the creation phrase.
+   */
+  public static RemoteConfig instanceOf(final String url, final long initialDelay, 
+      final long delay, final TimeUnit unit, final File snapshotDirectory) {
+    FutureTask<RemoteConfig> future = fTable.get(url);
+    if (future == null) {
+      FutureTask<RemoteConfig> ft = new FutureTask<RemoteConfig>(new Callable<RemoteConfig>() {
+
+        @Override
+        public RemoteConfig call() throws Exception {
+          return new RemoteConfig(url, initialDelay, delay, unit, snapshotDirectory);
+        }
+
+      });
+
+      future = fTable.putIfAbsent(url, ft);
+      if (future == null) {
+        future = ft;
+        future.run();
+      }
+    }
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      fTable.remove(url);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Parses a document into an immutable snapshot.
+   */
+  static Map<String, Entry> parse(String document) throws IOException {
+    Properties properties = new Properties();
+    properties.load(new StringReader(document));
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    for (String key : properties.stringPropertyNames()) {
+      entries.put(key, new Entry(key, properties.getProperty(key).trim()));
+    }
+    return Collections.unmodifiableMap(entries);
+  }
+
+  /**
+   * Returns the boolean value of a key, which is <tt>true</tt> or <tt>false</tt> 
+   * ignoring case.
+   * 
+   * @param key the key
+   * @param defValue the default value
+   * @return the value, or the default value if it is absent or not a boolean
+   */
+  public boolean getBoolean(String key, boolean defValue) {
+    Entry entry = snapshot.get().get(key);
+    return entry != null && entry.isBoolean ? entry.booleanValue : defValue;
+  }
+
+  /**
+   * Returns the long value of a key.
+   * 
+   * @param key the key
+   * @param defValue the default value
+   * @return the value, or the default value if it is absent or not a long
+   */
+  public long getLong(String key, long defValue) {
+    Entry entry = snapshot.get().get(key);
+    return entry != null && entry.isLong ? entry.longValue : defValue;
+  }
+
+  /**
+   * Returns the double value of a key.
+   * 
+   * @param key the key
+   * @param defValue the default value
+   * @return the value, or the default value if it is absent or not a number
+   */
+  public double getDouble(String key, double defValue) {
+    Entry entry = snapshot.get().get(key);
+    return entry != null && entry.isDouble ? entry.doubleValue : defValue;
+  }
+
+  /**
+   * Returns the string value of a key, with the leading and trailing spaces trimmed.
+   * 
+   * @param key the key
+   * @param defValue the default value
+   * @return the value, or the default value if it is absent
+   */
+  public String getString(String key, String defValue) {
+    Entry entry = snapshot.get().get(key);
+    return entry != null ? entry.text : defValue;
+  }
+
+  /**
+   * Returns whether a feature is on for a user. 
+   * <p>
+   * A feature of <tt>true</tt> is on for all users, and a feature of percentage 
+   * like <tt>12.5%</tt> is on for that share of users. A user falls in a stable
+   * bucket of a feature, which is a hash of the feature name and the user id, so
+   * the answer never changes unless the percentage does, and a user on at a 
+   * percentage stays on at a larger one. A feature that is absent or of other 
+   * values is off.
+   * 
+   * @param feature the feature key
+   * @param userId the user id
+   * @return true if the feature is on for the user
+   */
+  public boolean isEnabled(String feature, long userId) {
+    Entry entry = snapshot.get().get(feature);
+    if (entry == null || entry.rollout <= 0) {
+      return false;
+    }
+    return entry.rollout >= BUCKETS || bucketOf(entry.salt, userId) < entry.rollout;
+  }
+
+  /** Returns the rollout bucket of a user in range [0, BUCKETS). */
+  static int bucketOf(int salt, long userId) {
+    // The finalizer of SplitMix64, which spreads the close ids apart.
+    long z = userId + (salt + 1L) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (int) ((z >>> 1) % BUCKETS);
+  }
+
+  /** The parsed forms of a value. */
+  static final class Entry {
+    final String text;
+    final boolean isBoolean;
+    final boolean booleanValue;
+    final boolean isLong;
+    final long longValue;
+    final boolean isDouble;
+    final double doubleValue;
+    /** The number of rollout buckets on, or -1 if it is not a feature value. */
+    final int rollout;
+    /** The hash of the key, <tt>String.hashCode</tt> is specified and stable. */
+    final int salt;
+
+    Entry(String key, String text) {
+      this.text = text;
+      this.salt = key.hashCode();
+      this.isBoolean = "true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text);
+      this.booleanValue = "true".equalsIgnoreCase(text);
+
+      long longValue = 0;
+      boolean isLong = false;
+      try {
+        longValue = Long.parseLong(text);
+        isLong = true;
+      } catch (NumberFormatException ignored) {
+        // Not a long.
+      }
+      this.isLong = isLong;
+      this.longValue = longValue;
+
+      double doubleValue = 0;
+      boolean isDouble = false;
+      try {
+        doubleValue = Double.parseDouble(text);
+        isDouble = !Double.isNaN(doubleValue);
+      } catch (NumberFormatException ignored) {
+        // Not a double.
+      }
+      this.isDouble = isDouble;
+      this.doubleValue = doubleValue;
+
+      this.rollout = isBoolean ? (booleanValue ? BUCKETS : 0) : rolloutOf(text);
+    }
+
+    private static int rolloutOf(String text) {
+      if (!text.endsWith("%")) {
+        return -1;
+      }
+      try {
+        double percent = Double.parseDouble(text.substring(0, text.length() - 1).trim());
+        if (percent >= 0 && percent <= 100) {
+          return (int) Math.round(percent * BUCKETS / 100);
+        }
+      } catch (NumberFormatException ignored) {
+        // Not a percentage.
+      }
+      logger.log(Level.WARNING, "invalid rollout percentage: {0}", text);
+      return -1;
+    }
+  }
+}
@@ -1,23 +1,41 @@
 package io.harborl.solid.toys.switcher;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A remote <tt>Boolean</tt> value based switcher. It is used to 
  * regularly fetch the remote configuration of a specified URL,
  * and return the value through a <tt>get</tt> method.
+ * <p>
+ * All the switchers share a small scheduler of daemon threads, the polls
+ * are jittered and backed off exponentially on failures. An unchanged 
+ * content costs a conditional request answered with <tt>304 Not Modified</tt>.
+ * The value changes and the failures are logged with <tt>java.util.logging</tt>.
+ * <p>
+ * The {@linkplain ChangeListener}s are called on their executors only when the
+ * value really changes, and a switcher built in the long poll mode sees a 
+ * change as soon as the server reports it, see {@linkplain Builder#longPoll(int)}.
+ * <p>
+ * The last fetched value can be kept in a local snapshot file, so a new run starts 
+ * with the last known good value instead of the default one, even if the server 
+ * is slow or unreachable, see {@linkplain Builder#snapshotDirectory(File)}. 
+ * Its age and staleness are reported by {@linkplain #ageMillis()} and 
+ * {@linkplain #isStale()}.
  * 
  * <p><b>Note: </b>
  * The instance of this class is thread-safe and does not block
@@ -28,6 +46,8 @@ import java.util.concurrent.atomic.AtomicReference;
  *
  */
 public class RemoteSwitcher {
+
+  private static final Logger logger = Logger.getLogger(RemoteSwitcher.class.getName());
   
   /**
    * The underlying well-formated URL for 
@@ -56,83 +76,54 @@ public class RemoteSwitcher {
   private final AtomicReference<Boolean> switcher;
   
   /**
-   * A single thread 'thread-pool' based regular timer scheduler.
+   * The seconds a server may hold a long poll, or 0 to poll regularly.
    */
-  private final ScheduledExecutorService keeper;
+  private final int waitSeconds;
+
+  /**
+   * The max age of a fresh value.
+   */
+  private final long staleAfterMillis;
+
+  private final Poller poller;
+
+  private final List<Registration> listeners = new CopyOnWriteArrayList<Registration>();
   
-  private RemoteSwitcher(String url, boolean defValue, long initialDelay, long delay, TimeUnit unit) {
-    if (url == null || unit == null) throw new NullPointerException();
-    if (delay <= 0 || initialDelay < 0) throw new IllegalArgumentException(); 
-    
+  private RemoteSwitcher(Builder builder) {
     try {
-      this.theURL = new URL(url);
+      this.theURL = new URL(builder.url);
     } catch (MalformedURLException e) {
       throw new RuntimeException(e);
     }
-    this.delay = delay;
-    this.unit = unit;
-    this.initialDelay = initialDelay;
-    this.switcher = new AtomicReference<Boolean>(defValue);
+    this.delay = builder.delay;
+    this.unit = builder.unit;
+    this.initialDelay = builder.initialDelay;
+    this.waitSeconds = builder.waitSeconds;
+    this.switcher = new AtomicReference<Boolean>(builder.defValue);
 
     /*
-     * A single thread 'thread-pool' based timer scheduler.
-     * It uses the daemon thread that desn't block the JVM stopping,
-     * that is to say, it will shutdown automatically when the JVM exits.
+     * Initializes the poll loop on the shared keeper scheduler.
+     * A poll is scheduled after the previous one ends, so that the
+     * polls of a switcher never run concurrently.
      */
-    this.keeper = 
-        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    SnapshotFile snapshotFile = builder.snapshotDirectory == null ? null 
+        : SnapshotFile.of(builder.snapshotDirectory, theURL);
+    this.staleAfterMillis = builder.staleAfterMillis > 0 
+        ? builder.staleAfterMillis : 10 * unit.toMillis(delay);
+    this.poller = new Poller(new Fetcher(theURL, waitSeconds), snapshotFile, this.delay, this.unit) {
 
       @Override
-      public Thread newThread(Runnable r) {
-        Thread thread = new Thread(r, "[BooleanSwitcher] - keeper - " + theURL);
-        thread.setDaemon(true);
-        return thread;
-      }
-
-    });
-    
-    /*
-     * Initializes the timer scheduler keeper.
-     * It uses scheduleAtFixedRate to guarantees that:
-     * "If any execution of this task
-     * takes longer than its period, then subsequent executions
-     * may start late, but will not concurrently execute."
-     */
-    {
-      keeper.scheduleAtFixedRate(new Runnable() {
-
-        @Override
-        public void run() {
-          try {
-            /*
-             * Read and covert a inputStream to a String.
-             * Referred this: 
-             * http://stackoverflow.com/questions/309424/read-convert-an-inputstream-to-a-string
-             */
-            Scanner s = new Scanner(theURL.openStream(), "utf-8").useDelimiter("\\A");
-            try {
-              String booleanText = s.hasNext() ? s.next() : "true";
-              switcher.set(Boolean.valueOf(booleanText));
-              System.out.println("[BooleanSwitcher] [INFO] - " + switcher.get());
-            } finally {
-              s.close();
-            }
-            /* We suppress all of exceptions just to
-             * makes sure the scheduler loop be going-on, no matter what 
-             * kind of error happens.
-             */
-          } catch (Throwable t) {
-            /*
-             * Reports above suppressed error to console, which is used
-             * to find and track the root cause.
-             */
-            t.printStackTrace();
-            System.out.println("[BooleanSwitcher] [RROR] - " + switcher.get());
-          }
+      void apply(String booleanText) {
+        boolean value = Boolean.valueOf(booleanText.isEmpty() ? "true" : booleanText);
+        boolean old = switcher.getAndSet(value);
+        if (old != value) {
+          logger.log(Level.INFO, "{0} is switched to {1}", new Object[] { theURL, value });
+          fire(old, value);
         }
+      }
 
-      }, this.initialDelay, this.delay, this.unit);
-    }
+    };
+    poller.start(this.initialDelay, this.unit);
   }
 
   private static final ConcurrentMap<String, FutureTask<RemoteSwitcher>> fTable = 
@@ -155,13 +146,18 @@ public class RemoteSwitcher {
    */
   public static RemoteSwitcher 
   instanceOf(final String url, final boolean defValue, final long initialDelay, final long delay, final TimeUnit unit) {
+    return new Builder(url).defaultValue(defValue).delay(initialDelay, delay, unit).build();
+  }
+
+  private static RemoteSwitcher instanceOf(final Builder builder) {
+    final String url = builder.url;
     FutureTask<RemoteSwitcher> future = fTable.get(url);
     if (future == null) {
       FutureTask<RemoteSwitcher> ft = new FutureTask<RemoteSwitcher>(new Callable<RemoteSwitcher>() {
 
         @Override
         public RemoteSwitcher call() throws Exception {
-          return new RemoteSwitcher(url, defValue, initialDelay, delay, unit);
+          return new RemoteSwitcher(builder);
         }
 
       });
@@ -184,6 +180,193 @@ public class RemoteSwitcher {
     }
   }
 
+  /**
+   * Returns the age of the value, which is the time since it was last fetched
+   * or confirmed by the server, including the time it was kept in the local 
+   * snapshot before this run. The confirmations of an unchanged value are saved
+   * into the snapshot at most once a minute, so a restored age may be up to a 
+   * minute older than the last confirmation.
+   * 
+   * @return the age in milliseconds, or -1 if the value is the default one
+   */
+  public long ageMillis() {
+    long confirmedAt = poller.confirmedAt();
+    return confirmedAt < 0 ? -1 : Math.max(0, System.currentTimeMillis() - confirmedAt);
+  }
+
+  /**
+   * Returns whether the value is stale, that is it is the default one, 
+   * or the one restored from the local snapshot that has not been confirmed
+   * by a poll of this run yet, or it is older than the stale age, see 
+   * {@linkplain Builder#staleAfter(long, TimeUnit)}.
+   * 
+   * @return true if the value is stale
+   */
+  public boolean isStale() {
+    long age = ageMillis();
+    return age < 0 || !poller.isPolled() || age > staleAfterMillis;
+  }
+
+  /**
+   * Adds a listener of the value changes, which is called on the executor.
+   * The listeners are called in the order of changes only if the executor 
+   * runs the tasks in order, like a single thread executor.
+   * 
+   * @param listener the listener
+   * @param executor the executor calling the listener
+   */
+  public void addListener(ChangeListener<Boolean> listener, Executor executor) {
+    if (listener == null || executor == null) throw new NullPointerException();
+    listeners.add(new Registration(listener, executor));
+  }
+
+  /**
+   * Removes a listener, all the registrations of it are removed.
+   * 
+   * @param listener the listener
+   */
+  public void removeListener(ChangeListener<Boolean> listener) {
+    for (Registration registration : listeners) {
+      if (registration.listener == listener) {
+        listeners.remove(registration);
+      }
+    }
+  }
+
+  private void fire(final boolean oldValue, final boolean newValue) {
+    for (final Registration registration : listeners) {
+      try {
+        registration.executor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              registration.listener.changed(oldValue, newValue);
+            } catch (RuntimeException e) {
+              logger.log(Level.WARNING, "listener of " + theURL + " failed", e);
+            }
+          }
+
+        });
+      } catch (RejectedExecutionException e) {
+        logger.log(Level.WARNING, "listener of " + theURL + " is rejected", e);
+      }
+    }
+  }
+
+  private static final class Registration {
+    final ChangeListener<Boolean> listener;
+    final Executor executor;
+
+    Registration(ChangeListener<Boolean> listener, Executor executor) {
+      this.listener = listener;
+      this.executor = executor;
+    }
+  }
+
+  /**
+   * The builder of a switcher, the first built switcher of a URL is its singleton, 
+   * the later ones built for the URL just return it.
+   * <p>
+   * <strong>Usage:</strong>
+   * <pre>{@code
+   * RemoteSwitcher switcher = new RemoteSwitcher.Builder(url)
+   *     .delay(0, 3, TimeUnit.SECONDS).longPoll(30).build();
+   * }</pre>
+   */
+  public static class Builder {
+    private final String url;
+    private boolean defValue = true;
+    private long initialDelay = 0;
+    private long delay = 3;
+    private TimeUnit unit = TimeUnit.SECONDS;
+    private int waitSeconds;
+    private File snapshotDirectory = SnapshotFile.defaultDirectory();
+    private long staleAfterMillis;
+
+    /**
+     * @param url the underlying well-formated URL for fetching the boolean text content
+     */
+    public Builder(String url) {
+      if (url == null) throw new NullPointerException("url == null");
+      this.url = url;
+    }
+
+    /**
+     * @param defValue the initial default value of switcher, true by default
+     * @return this builder
+     */
+    public Builder defaultValue(boolean defValue) {
+      this.defValue = defValue;
+      return this;
+    }
+
+    /**
+     * @param initialDelay the initial delay of scheduler
+     * @param delay the regular delay of scheduler, 3 seconds by default
+     * @param unit the measurement unit of delay
+     * @return this builder
+     */
+    public Builder delay(long initialDelay, long delay, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (delay <= 0 || initialDelay < 0) throw new IllegalArgumentException("negative delay");
+      this.initialDelay = initialDelay;
+      this.delay = delay;
+      this.unit = unit;
+      return this;
+    }
+
+    /**
+     * Turns on the long poll mode, a server supporting <tt>Prefer: wait</tt>
+     * holds a request till the value changes or the wait ends, so a change
+     * is seen at once. The regular delay becomes the min interval of polls.
+     * 
+     * @param waitSeconds the max seconds a server may hold a poll
+     * @return this builder
+     */
+    public Builder longPoll(int waitSeconds) {
+      if (waitSeconds <= 0) throw new IllegalArgumentException("waitSeconds <= 0");
+      this.waitSeconds = waitSeconds;
+      return this;
+    }
+
+    /**
+     * Sets the directory of the local snapshots, where the last fetched value is
+     * kept and loaded on the next start before the first fetch. It is the system 
+     * property <tt>io.harborl.solid.toys.switcher.snapshots</tt> by default, and 
+     * the snapshots are off without it. A snapshot is trusted as it is, so the 
+     * directory must not be writable by other users, e.g. not a shared temporary
+     * directory.
+     * 
+     * @param directory the directory, or null not to keep the snapshot
+     * @return this builder
+     */
+    public Builder snapshotDirectory(File directory) {
+      this.snapshotDirectory = directory;
+      return this;
+    }
+
+    /**
+     * @param age the max age of a fresh value, 10 times of the regular delay by default
+     * @param unit the measurement unit of age
+     * @return this builder
+     */
+    public Builder staleAfter(long age, TimeUnit unit) {
+      if (unit == null) throw new NullPointerException("unit == null");
+      if (age <= 0) throw new IllegalArgumentException("age <= 0");
+      this.staleAfterMillis = unit.toMillis(age);
+      return this;
+    }
+
+    /**
+     * @return the singleton switcher of the URL, or null if current thread 
+     * interrupts during the creation phrase.
+     */
+    public RemoteSwitcher build() {
+      return instanceOf(this);
+    }
+  }
+
   /**
    * Returns the <tt>Boolean</tt> switcher value.
    * 
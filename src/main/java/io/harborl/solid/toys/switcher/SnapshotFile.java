@@ -0,0 +1,218 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * The last known good content of a URL on local disk, which is loaded on
+ * startup before the first fetch.
+ * <p>
+ * A snapshot is written into a temporary file, forced to disk and then 
+ * moved atomically over the old one, so a reader sees either the old or the
+ * new snapshot as a whole. It is read back with a memory mapped read, and 
+ * a snapshot failing the checksum is ignored.
+ * <p>
+ * The checksum only detects corruption, so the snapshots must be kept where 
+ * no other user can write. A directory created here is only accessible by its
+ * owner, and on a POSIX file system a snapshot owned by another user is ignored.
+ * <p>
+ * The file layout is: <tt>[magic][crc32][length][fetched at][content][etag][last modified]</tt>,
+ * where a string is <tt>[length][utf-8 bytes]</tt> and -1 length for null.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class SnapshotFile {
+
+  /** The system property of the default snapshot directory. */
+  static final String DIRECTORY_PROPERTY = "io.harborl.solid.toys.switcher.snapshots";
+
+  private static final int MAGIC = 0x53535731; // "SSW1"
+  private static final int HEADER = 12;
+
+  private final File file;
+
+  private SnapshotFile(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns the default directory, which is the system property 
+   * {@value #DIRECTORY_PROPERTY}, the snapshots are off without it.
+   * 
+   * @return the directory, or null if it is not set
+   */
+  static File defaultDirectory() {
+    String directory = System.getProperty(DIRECTORY_PROPERTY);
+    return directory != null ? new File(directory) : null;
+  }
+
+  private static boolean isPosix() {
+    return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+  }
+
+  /**
+   * Returns the snapshot file of a URL, which is named by the SHA-1 of the URL.
+   */
+  static SnapshotFile of(File directory, URL url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.toString().getBytes(Fetcher.UTF_8));
+      StringBuilder name = new StringBuilder(48);
+      for (byte b : digest) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return new SnapshotFile(new File(directory, name.append(".snapshot").toString()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  File file() {
+    return file;
+  }
+
+  /**
+   * Reads the snapshot.
+   * 
+   * @return the snapshot, or null if it is absent or corrupted
+   * @throws IOException if the file exists but can not be read
+   */
+  Snapshot read() throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    if (isPosix() && !Files.getOwner(file.toPath()).getName().equals(System.getProperty("user.name"))) {
+      throw new IOException(file + " is not owned by " + System.getProperty("user.name"));
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < HEADER || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      int magic = buffer.getInt();
+      int crc = buffer.getInt();
+      int length = buffer.getInt();
+      if (magic != MAGIC || length != size - HEADER) {
+        return null;
+      }
+      byte[] body = new byte[length];
+      buffer.get(body);
+      CRC32 crc32 = new CRC32();
+      crc32.update(body, 0, length);
+      if ((int) crc32.getValue() != crc) {
+        return null;
+      }
+      ByteBuffer record = ByteBuffer.wrap(body);
+      long fetchedAt = record.getLong();
+      return new Snapshot(getString(record), getString(record), getString(record), fetchedAt);
+    }
+  }
+
+  /**
+   * Writes the snapshot atomically.
+   * 
+   * @param snapshot the snapshot
+   * @throws IOException if it can not be written
+   */
+  void write(Snapshot snapshot) throws IOException {
+    File directory = file.getParentFile();
+    if (!directory.isDirectory()) {
+      if (isPosix()) {
+        Files.createDirectories(directory.toPath(), 
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } else {
+        Files.createDirectories(directory.toPath());
+      }
+    }
+
+    byte[] content = bytesOf(snapshot.content);
+    byte[] etag = bytesOf(snapshot.etag);
+    byte[] lastModified = bytesOf(snapshot.lastModified);
+    int length = 8 + sizeOf(content) + sizeOf(etag) + sizeOf(lastModified);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER + length);
+    buffer.position(HEADER);
+    buffer.putLong(snapshot.fetchedAt);
+    putBytes(buffer, content);
+    putBytes(buffer, etag);
+    putBytes(buffer, lastModified);
+
+    CRC32 crc32 = new CRC32();
+    crc32.update(buffer.array(), HEADER, length);
+    buffer.putInt(0, MAGIC).putInt(4, (int) crc32.getValue()).putInt(8, length);
+    buffer.rewind();
+
+    // A temporary file is only readable and writable by its owner.
+    Path temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+    try {
+      try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+        FileChannel channel = out.getChannel();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(temp, file.toPath(), 
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static byte[] bytesOf(String s) {
+    return s == null ? null : s.getBytes(Fetcher.UTF_8);
+  }
+
+  private static int sizeOf(byte[] bytes) {
+    return 4 + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(bytes.length).put(bytes);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, Fetcher.UTF_8);
+  }
+
+  /** A fetched content with its validators. */
+  static final class Snapshot {
+    final String content;
+    final String etag;
+    final String lastModified;
+    /** The epoch millis of the fetch, or of the last confirmation of an unchanged content. */
+    final long fetchedAt;
+
+    Snapshot(String content, String etag, String lastModified, long fetchedAt) {
+      this.content = content;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in of the config server for tests, which serves a content 
+ * on the loopback address with the conditional and the long poll requests.
+ * <p>
+ * The content has an {@code ETag} of its version, a request with the current 
+ * one is answered with <tt>304</tt>, or held till the content changes if it 
+ * sends <tt>Prefer: wait=N</tt>.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+final class StandInServer {
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  // Guarded by this
+  private String content;
+  private long version;
+  private long requests;
+
+  private StandInServer(String content) throws IOException {
+    this.content = content;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    // A held long poll must not block the other requests.
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "[StandInServer] - handler");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts a server of the content.
+   * 
+   * @param content the initial content
+   * @return the started server
+   * @throws IOException if the server can not be bound
+   */
+  static StandInServer start(String content) throws IOException {
+    StandInServer standIn = new StandInServer(content);
+    standIn.server.start();
+    return standIn;
+  }
+
+  /** Returns the URL of the content, every path serves the same content. */
+  String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  /** Replaces the content, and answers the held polls. */
+  synchronized void set(String content) {
+    if (!content.equals(this.content)) {
+      this.content = content;
+      version++;
+      notifyAll();
+    }
+  }
+
+  /** Returns the number of served requests. */
+  synchronized long requests() {
+    return requests;
+  }
+
+  void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException, InterruptedException {
+    drain(exchange.getRequestBody());
+    String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+    long wait = waitSecondsOf(exchange.getRequestHeaders().getFirst("Prefer"));
+
+    String body;
+    String etag;
+    synchronized (this) {
+      requests++;
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(wait);
+      long left;
+      while (tagOf(version).equals(match) && (left = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, left);
+      }
+      body = content;
+      etag = tagOf(version);
+    }
+
+    exchange.getResponseHeaders().set("ETag", etag);
+    if (etag.equals(match)) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+    byte[] bytes = body.getBytes(Fetcher.UTF_8);
+    exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private static String tagOf(long version) {
+    return "\"v" + version + "\"";
+  }
+
+  private static long waitSecondsOf(String prefer) {
+    if (prefer == null || !prefer.trim().startsWith("wait=")) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(prefer.trim().substring("wait=".length())));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[512];
+    while (in.read(buffer) >= 0) { }
+    in.close();
+  }
+}
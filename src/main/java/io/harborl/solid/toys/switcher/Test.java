@@ -0,0 +1,208 @@
+package io.harborl.solid.toys.switcher;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class Test {
+  
+  public static void main(String[] args) throws Exception {
+    /* ----------------------------------------------------------------------
+     * Preparation : Serves the switcher value with a local stand-in server.
+     * ----------------------------------------------------------------------
+     */
+    StandInServer server = StandInServer.start("false");
+    ExecutorService listenerExecutor = Executors.newSingleThreadExecutor();
+
+    RemoteSwitcher switcher = new RemoteSwitcher.Builder(server.url("/switcher.boolean"))
+        .defaultValue(false).delay(0, 3, TimeUnit.SECONDS).longPoll(30).build();
+
+    final CountDownLatch switched = new CountDownLatch(1);
+    final AtomicInteger fired = new AtomicInteger();
+    final long[] seenAt = new long[1];
+    switcher.addListener(new ChangeListener<Boolean>() {
+
+      @Override
+      public void changed(Boolean oldValue, Boolean newValue) {
+        seenAt[0] = System.nanoTime();
+        fired.incrementAndGet();
+        System.out.println("switched from " + oldValue + " to " + newValue);
+        switched.countDown();
+      }
+
+    }, listenerExecutor);
+
+    /* ----------------------------------------------------------------------
+     * Switching : A change is seen as soon as the held poll is answered.
+     * ----------------------------------------------------------------------
+     */
+    Thread.sleep(500);
+    long changedAt = System.nanoTime();
+    server.set("true");
+    if (!switched.await(10, TimeUnit.SECONDS) || !switcher.get()) {
+      throw new AssertionError("not switched, value: " + switcher.get());
+    }
+    long propagation = TimeUnit.NANOSECONDS.toMillis(seenAt[0] - changedAt);
+    if (propagation >= 1000) {
+      throw new AssertionError("propagation took " + propagation + "ms");
+    }
+    System.out.println("value: " + switcher.get() + ", propagation: " 
+        + propagation + "ms, requests: " + server.requests());
+
+    // A changed content of the same value does not fire again, the next poll
+    // is sent only after the held one is answered and applied.
+    long requests = server.requests();
+    server.set("TRUE");
+    long deadline = System.currentTimeMillis() + 10000;
+    while (server.requests() <= requests && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    listenerExecutor.shutdown();
+    listenerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    if (server.requests() <= requests || fired.get() != 1) {
+      throw new AssertionError("fired " + fired.get() + " times, requests: " + server.requests());
+    }
+
+    server.close();
+
+    malformed();
+    rollout();
+    typed();
+  }
+
+  /* ----------------------------------------------------------------------
+   * Rollout : A user keeps its bucket, and stays on at a larger percentage.
+   * ----------------------------------------------------------------------
+   */
+  private static void rollout() throws Exception {
+    int[] percents = { 0, 5, 12, 50, 99, 100 };
+    int users = 100000;
+    boolean[] on = new boolean[users];
+    for (int percent : percents) {
+      RemoteConfig.Entry entry = RemoteConfig.parse("feature.search = " + percent + "%").get("feature.search");
+      RemoteConfig.Entry again = RemoteConfig.parse("feature.search = " + percent + "%").get("feature.search");
+      int enabled = 0;
+      for (int user = 0; user < users; user++) {
+        int bucket = RemoteConfig.bucketOf(entry.salt, user);
+        if (bucket < 0 || bucket >= RemoteConfig.BUCKETS || bucket != RemoteConfig.bucketOf(again.salt, user)) {
+          throw new AssertionError("unstable bucket of user " + user + ": " + bucket);
+        }
+        boolean now = bucket < entry.rollout;
+        if (on[user] && !now) {
+          throw new AssertionError("user " + user + " is off at " + percent + "%");
+        }
+        on[user] = now;
+        if (now) enabled++;
+      }
+      // The share of a hundred thousand users is within half a point.
+      if (Math.abs(enabled * 100.0 / users - percent) > 0.5) {
+        throw new AssertionError(enabled + " users on at " + percent + "%");
+      }
+    }
+    System.out.println("rollout is stable and monotonic");
+  }
+
+  /* ----------------------------------------------------------------------
+   * Typed : A value not of the type asked for falls back to the default.
+   * ----------------------------------------------------------------------
+   */
+  private static void typed() throws Exception {
+    Map<String, RemoteConfig.Entry> entries = RemoteConfig.parse(
+        "batch = 200\nratio = 0.75\nsender = noreply@example.com\n"
+        + "checkout = 12.5%\nover = 150%\nodd = abc%\nsearch = TRUE\n");
+
+    RemoteConfig.Entry checkout = entries.get("checkout");
+    if (checkout.rollout != 1250 || checkout.isLong || checkout.isDouble || checkout.isBoolean) {
+      throw new AssertionError("12.5% is parsed as " + checkout.rollout);
+    }
+    if (entries.get("over").rollout != -1 || entries.get("odd").rollout != -1) {
+      throw new AssertionError("an invalid percentage is a rollout");
+    }
+    if (entries.get("search").rollout != RemoteConfig.BUCKETS || entries.get("batch").rollout != -1) {
+      throw new AssertionError("search: " + entries.get("search").rollout);
+    }
+
+    // The getters of a live instance, fed by the stand-in server.
+    StandInServer server = StandInServer.start("batch = 200\nratio = 0.75\n"
+        + "sender = noreply@example.com\ncheckout = 12.5%\nover = 150%\nsearch = TRUE\n");
+    try {
+      RemoteConfig config = RemoteConfig.instanceOf(
+          server.url("/typed.properties"), 0, 1, TimeUnit.SECONDS, null);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (config.getString("batch", null) == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+
+      if (config.getLong("batch", -1) != 200 || config.getDouble("batch", -1) != 200
+          || config.getDouble("ratio", -1) != 0.75 || config.getLong("ratio", -1) != -1) {
+        throw new AssertionError("numbers: " + config.getString("batch", null));
+      }
+      if (config.getLong("sender", -1) != -1 || config.getDouble("sender", -1) != -1 
+          || config.getBoolean("sender", true) != true || config.getLong("absent", -1) != -1) {
+        throw new AssertionError("a non-numeric value is not the default");
+      }
+      if (config.getLong("checkout", -1) != -1 || config.getDouble("checkout", -1) != -1
+          || !"12.5%".equals(config.getString("checkout", null))) {
+        throw new AssertionError("a percentage is a number");
+      }
+      if (config.isEnabled("over", 1) || config.isEnabled("sender", 1) || !config.isEnabled("search", 1)
+          || !config.getBoolean("search", false)) {
+        throw new AssertionError("features: " + config.getString("over", null));
+      }
+      System.out.println("typed values fall back to the defaults");
+    } finally {
+      server.close();
+    }
+  }
+
+  /* ----------------------------------------------------------------------
+   * Malformed : A malformed document never replaces the last known good one.
+   * ----------------------------------------------------------------------
+   */
+  private static void malformed() throws Exception {
+    StandInServer server = StandInServer.start("b = \\uZZZZ");
+    URL url = new URL(server.url("/config.properties"));
+    File directory = Files.createTempDirectory("snapshots").toFile();
+    SnapshotFile snapshotFile = SnapshotFile.of(directory, url);
+    snapshotFile.write(new SnapshotFile.Snapshot(
+        "a = 42", "\"old\"", null, System.currentTimeMillis() - 120 * 1000));
+
+    try {
+      final AtomicReference<Map<String, RemoteConfig.Entry>> applied = 
+          new AtomicReference<Map<String, RemoteConfig.Entry>>();
+      Poller poller = new Poller(new Fetcher(url), snapshotFile, 200, TimeUnit.MILLISECONDS) {
+        @Override
+        void apply(String document) throws Exception {
+          applied.set(RemoteConfig.parse(document));
+        }
+      };
+      poller.start(0, TimeUnit.MILLISECONDS);
+      Thread.sleep(2500);
+
+      RemoteConfig.Entry a = applied.get().get("a");
+      if (a == null || a.longValue != 42) {
+        throw new AssertionError("the restored document is not kept: " + applied.get());
+      }
+      if (!"a = 42".equals(snapshotFile.read().content)) {
+        throw new AssertionError("the snapshot is replaced by " + snapshotFile.read().content);
+      }
+      if (poller.isPolled() || server.requests() < 2) {
+        throw new AssertionError("the malformed document is confirmed, requests: " + server.requests());
+      }
+      System.out.println("malformed document rejected, requests: " + server.requests());
+    } finally {
+      server.close();
+      snapshotFile.file().delete();
+      directory.delete();
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+package io.harborl.solid.toys.tracing;
+
+import io.harborl.solid.toys.batch.Action;
+import io.harborl.solid.toys.batch.Context;
+import io.harborl.solid.toys.batch.Gather;
+import io.harborl.solid.toys.dispatch.ConcurrentDispatch;
+import io.harborl.solid.toys.dispatch.Subscriber;
+import io.harborl.solid.toys.filter.Filter;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class Test {
+
+  private static final int SPANS = 10000000;
+
+  public static void main(String[] args) throws Exception {
+    /* ----------------------------------------------------------------------
+     * Overhead : Compares the spans off, not sampled and sampled.
+     * ----------------------------------------------------------------------
+     */
+    for (double rate : new double[] { 0, 0.001, 1 }) {
+      Tracer.setSampling(rate);
+      long start = System.nanoTime();
+      for (int i = 0; i < SPANS; i++) {
+        Tracer.end(Tracer.begin("overhead"));
+      }
+      System.out.printf("sampling %.3f: %.1fns/span%n", rate, 
+          (double) (System.nanoTime() - start) / SPANS);
+    }
+    Tracer.clear();
+
+    /* ----------------------------------------------------------------------
+     * Hand-off : A request traced across the batch and the dispatch pools.
+     * ----------------------------------------------------------------------
+     */
+    Map<Context, Action> actions = new HashMap<Context, Action>();
+    for (final String path : new String[] { "/feeds", "/messages", "/profile" }) {
+      actions.put(new Context.Builder().path(path).build(), new Action() {
+        @Override
+        public String apply(Context context) {
+          sleep(5);
+          return "{}";
+        }
+
+        @Override
+        public String path() {
+          return path;
+        }
+      });
+    }
+    ConcurrentDispatch<String> dispatch = ConcurrentDispatch.valueOf(2);
+    dispatch.register(new Subscriber<String>() {
+      @Override
+      public void notify(String t) {
+        sleep(2);
+      }
+    }, new Filter<String>() {
+      @Override
+      public boolean test(String t) {
+        return true;
+      }
+    }, "audit");
+
+    long request = Tracer.begin("request");
+    try {
+      Gather.INSTANCE.ruduce(actions, true);
+      dispatch.dispatch("done");
+    } finally {
+      Tracer.end(request);
+    }
+    sleep(100);
+
+    File file = new File(System.getProperty("java.io.tmpdir"), "solid-toys-trace.json");
+    System.out.println(Tracer.exportChrome(file) + " spans exported to " + file);
+
+    Gather.INSTANCE.evictAll();
+    dispatch.dismiss();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,468 @@
+package io.harborl.solid.toys.tracing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lightweight span tracer.
+ * <p>
+ * A span is a named time range on a thread, begun and ended in the LIFO order 
+ * on its thread. A span begun on a thread already in a span is the child of it,
+ * and a span begun on another thread, e.g. after an executor hand-off, takes its
+ * parent explicitly from {@linkplain #current()} of the submitting thread:
+ * <pre>{@code
+ * final long parent = Tracer.current();
+ * executor.execute(new Runnable() {
+ *   public void run() {
+ *     long span = Tracer.begin("task", null, parent, System.nanoTime());
+ *     try { ... } finally { Tracer.end(span); }
+ *   }
+ * });
+ * }</pre>
+ * <p>
+ * A trace is sampled at its root by the {@linkplain #setSampling(double) sampling rate},
+ * which is 0 by default, and all its spans follow the decision. A span not sampled
+ * costs a thread local lookup and allocates nothing. The ended spans are kept in
+ * a ring buffer of their threads, which is allocated on the first sampled span,
+ * the oldest ones are overwritten, and they are exported in the Chrome trace 
+ * event format, which is viewed on the timeline of <tt>chrome://tracing</tt> or 
+ * Perfetto. The export reads the buffers of live threads without locks, so a span
+ * ended during the export may be missed. The buffers of dead threads are dropped
+ * once exported or cleared, or once another thread allocates its buffer, so the 
+ * replaced pool threads do not pile up.
+ * 
+ * @author Harbor Luo
+ * @since 0.2.0
+ */
+public final class Tracer {
+
+  /** The span id of no span. */
+  public static final long NONE = 0;
+
+  /** The span id of a span not sampled. */
+  public static final long UNSAMPLED = -1;
+
+  /** The number of the ended spans kept by a thread. */
+  static final int RING_SIZE = 1 << 12;
+
+  /** The max depth of nested spans on a thread, the deeper ones are not recorded. */
+  static final int MAX_DEPTH = 64;
+
+  private static final Charset UTF_8 = Charset.forName("utf-8");
+
+  private static final AtomicLong sequence = new AtomicLong();
+  private static final List<Trace> traces = new CopyOnWriteArrayList<Trace>();
+  private static final long EPOCH = System.nanoTime();
+  private static volatile double sampling;
+
+  private static final ThreadLocal<Trace> local = new ThreadLocal<Trace>() {
+    @Override protected Trace initialValue() {
+      return new Trace(Thread.currentThread());
+    }
+  };
+
+  private Tracer() { }
+
+  /**
+   * Sets the share of the traces sampled.
+   * 
+   * @param rate the rate in range [0, 1], 0 turns the tracing off
+   */
+  public static void setSampling(double rate) {
+    if (!(rate >= 0 && rate <= 1)) throw new IllegalArgumentException("rate out of [0, 1]");
+    sampling = rate;
+  }
+
+  /**
+   * @return true if any trace may be sampled
+   */
+  public static boolean isEnabled() {
+    return sampling > 0;
+  }
+
+  /**
+   * Returns the span of current thread, which is handed off to another 
+   * thread as the parent of its spans.
+   * 
+   * @return the span id, or {@linkplain #NONE} or {@linkplain #UNSAMPLED}
+   */
+  public static long current() {
+    if (sampling <= 0) {
+      return NONE;
+    }
+    return local.get().current();
+  }
+
+  /**
+   * Begins a span, as the child of the current span of this thread if there is one.
+   * 
+   * @param name the span name
+   * @return the span id to end it with
+   */
+  public static long begin(String name) {
+    return begin(name, null);
+  }
+
+  /**
+   * Begins a span, as the child of the current span of this thread if there is one.
+   * 
+   * @param name the span name
+   * @param detail the detail of the span, or null
+   * @return the span id to end it with
+   */
+  public static long begin(String name, String detail) {
+    if (sampling <= 0) {
+      return NONE;
+    }
+    Trace trace = local.get();
+    return trace.begin(name, detail, trace.current(), 0, true);
+  }
+
+  /**
+   * Begins a span with an explicit parent and start time, like a task span 
+   * started at its submission, so the queue wait is a part of it.
+   * 
+   * @param name the span name
+   * @param detail the detail of the span, or null
+   * @param parent the parent span, or {@linkplain #NONE} to begin a new trace
+   * @param startNanos the start time in {@code System.nanoTime()}
+   * @return the span id to end it with
+   */
+  public static long begin(String name, String detail, long parent, long startNanos) {
+    if (sampling <= 0) {
+      return NONE;
+    }
+    return local.get().begin(name, detail, parent, startNanos, false);
+  }
+
+  /**
+   * Ends a span of this thread, the spans begun after it and not ended yet are
+   * ended as well.
+   * 
+   * @param span the span id
+   */
+  public static void end(long span) {
+    if (span == NONE) {
+      return;
+    }
+    // The clock is read for the sampled spans only, it is not cheap on every host.
+    local.get().end(span, span > 0 ? System.nanoTime() : 0);
+  }
+
+  /** Adds the trace of a thread recording its first span, and drops the dead ones. */
+  private static void register(Trace trace) {
+    List<Trace> dead = new ArrayList<Trace>();
+    for (Trace t : traces) {
+      if (!t.isAlive()) {
+        dead.add(t);
+      }
+    }
+    traces.removeAll(dead);
+    traces.add(trace);
+  }
+
+  private static boolean sample() {
+    double rate = sampling;
+    return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  /**
+   * Drops all the ended spans.
+   */
+  public static void clear() {
+    for (Trace trace : traces) {
+      trace.clear();
+      if (!trace.isAlive()) {
+        traces.remove(trace);
+      }
+    }
+  }
+
+  /**
+   * Exports the ended spans in the Chrome trace event JSON format into a file.
+   * 
+   * @param file the target file
+   * @return the number of exported spans
+   * @throws IOException if the file can not be written
+   */
+  public static int exportChrome(File file) throws IOException {
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+      return exportChrome(out);
+    }
+  }
+
+  /**
+   * Exports the ended spans in the Chrome trace event JSON format. A span is a
+   * complete event with its id and parent as the arguments, and a span whose
+   * parent is on another thread is linked to it with a flow event.
+   * 
+   * @param out the target
+   * @return the number of exported spans
+   * @throws IOException if the target can not be written
+   */
+  public static int exportChrome(Appendable out) throws IOException {
+    List<Span> spans = new ArrayList<Span>();
+    List<Trace> exported = new ArrayList<Trace>();
+    for (Trace trace : traces) {
+      if (trace.collect(spans)) {
+        exported.add(trace);
+      }
+      if (!trace.isAlive()) {
+        traces.remove(trace);
+      }
+    }
+    Map<Long, Span> byId = new HashMap<Long, Span>();
+    for (Span span : spans) {
+      byId.put(span.id, span);
+    }
+
+    out.append("{\"traceEvents\":[");
+    String separator = "\n";
+    for (Trace trace : exported) {
+      out.append(separator);
+      separator = ",\n";
+      out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":")
+          .append(Long.toString(trace.tid)).append(",\"args\":{\"name\":");
+      quote(out, trace.threadName());
+      out.append("}}");
+    }
+    for (Span span : spans) {
+      out.append(separator);
+      separator = ",\n";
+      out.append("{\"name\":");
+      quote(out, span.name);
+      out.append(",\"cat\":\"span\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(Long.toString(span.tid));
+      out.append(",\"ts\":").append(micros(span.start));
+      out.append(",\"dur\":").append(duration(span.end - span.start));
+      out.append(",\"args\":{\"id\":").append(Long.toString(span.id));
+      out.append(",\"parent\":").append(Long.toString(span.parent));
+      if (span.detail != null) {
+        out.append(",\"detail\":");
+        quote(out, span.detail);
+      }
+      out.append("}}");
+
+      Span parent = byId.get(span.parent);
+      if (parent != null && parent.tid != span.tid) {
+        // A flow arrow from the parent thread to the child one.
+        out.append(",\n{\"name\":\"handoff\",\"cat\":\"flow\",\"ph\":\"s\",\"pid\":1,\"tid\":")
+            .append(Long.toString(parent.tid)).append(",\"ts\":")
+            .append(micros(Math.max(parent.start, Math.min(span.start, parent.end))))
+            .append(",\"id\":").append(Long.toString(span.id)).append("}");
+        out.append(",\n{\"name\":\"handoff\",\"cat\":\"flow\",\"ph\":\"f\",\"bp\":\"e\",\"pid\":1,\"tid\":")
+            .append(Long.toString(span.tid)).append(",\"ts\":").append(micros(span.start))
+            .append(",\"id\":").append(Long.toString(span.id)).append("}");
+      }
+    }
+    out.append("\n],\"displayTimeUnit\":\"ns\"}\n");
+    return spans.size();
+  }
+
+  /** Returns the microseconds since the epoch of tracer, with the nanoseconds. */
+  private static String micros(long nanos) {
+    return duration(nanos - EPOCH);
+  }
+
+  /** Returns the microseconds of a duration, with the nanoseconds. */
+  private static String duration(long nanos) {
+    String fraction = Long.toString(1000 + Math.abs(nanos % 1000)).substring(1);
+    return (nanos < 0 && nanos > -1000 ? "-" : "") + nanos / 1000 + "." + fraction;
+  }
+
+  private static void quote(Appendable out, String s) throws IOException {
+    out.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  /** An exported span. */
+  private static final class Span {
+    final long id;
+    final long parent;
+    final long tid;
+    final long start;
+    final long end;
+    final String name;
+    final String detail;
+
+    Span(long id, long parent, long tid, long start, long end, String name, String detail) {
+      this.id = id;
+      this.parent = parent;
+      this.tid = tid;
+      this.start = start;
+      this.end = end;
+      this.name = name;
+      this.detail = detail;
+    }
+  }
+
+  /**
+   * The spans of a thread: the stack of open spans, which is only accessed by 
+   * the thread, and the ring of ended spans, which is read by the exports.
+   */
+  private static final class Trace {
+    final long tid;
+    private final String name;
+    private final WeakReference<Thread> thread;
+
+    private final long[] openIds = new long[MAX_DEPTH];
+    private final long[] openParents = new long[MAX_DEPTH];
+    private final long[] openStarts = new long[MAX_DEPTH];
+    private final String[] openNames = new String[MAX_DEPTH];
+    private final String[] openDetails = new String[MAX_DEPTH];
+    /** The depth of open spans, it may exceed the stack, the deeper ones are not kept. */
+    private int depth;
+
+    /** The ended spans, null till the first sampled span ends. */
+    private volatile Ring ring;
+
+    Trace(Thread thread) {
+      this.tid = thread.getId();
+      this.name = thread.getName();
+      this.thread = new WeakReference<Thread>(thread);
+    }
+
+    /** The current name, a thread may be renamed while running a task. */
+    String threadName() {
+      Thread t = thread.get();
+      return t != null ? t.getName() : name;
+    }
+
+    boolean isAlive() {
+      Thread t = thread.get();
+      return t != null && t.isAlive();
+    }
+
+    long current() {
+      if (depth == 0) {
+        return NONE;
+      }
+      return depth <= MAX_DEPTH ? openIds[depth - 1] : UNSAMPLED;
+    }
+
+    long begin(String name, String detail, long parent, long startNanos, boolean now) {
+      long id;
+      if (parent == UNSAMPLED || depth >= MAX_DEPTH) {
+        id = UNSAMPLED;
+      } else if (parent == NONE) {
+        id = sample() ? sequence.incrementAndGet() : UNSAMPLED;
+      } else {
+        id = sequence.incrementAndGet();
+      }
+      if (depth < MAX_DEPTH) {
+        openIds[depth] = id;
+        openParents[depth] = parent;
+        openStarts[depth] = now && id > 0 ? System.nanoTime() : startNanos;
+        openNames[depth] = name;
+        openDetails[depth] = detail;
+      }
+      depth++;
+      return id;
+    }
+
+    void end(long span, long endNanos) {
+      if (span == UNSAMPLED && depth > MAX_DEPTH) {
+        depth--;
+        return;
+      }
+      // Finds the span, the ones begun after it are ended together.
+      int at = Math.min(depth, MAX_DEPTH) - 1;
+      while (at >= 0 && openIds[at] != span) {
+        at--;
+      }
+      if (at < 0) {
+        return;
+      }
+      for (int i = Math.min(depth, MAX_DEPTH) - 1; i >= at; i--) {
+        if (openIds[i] > 0) {
+          if (endNanos == 0) {
+            endNanos = System.nanoTime();
+          }
+          record(i, endNanos);
+        }
+        openNames[i] = null;
+        openDetails[i] = null;
+      }
+      depth = at;
+    }
+
+    private void record(int open, long endNanos) {
+      Ring r = ring;
+      if (r == null) {
+        ring = r = new Ring();
+        register(this);
+      }
+      long n = r.written;
+      int slot = (int) (n & (RING_SIZE - 1));
+      r.ids[slot] = openIds[open];
+      r.parents[slot] = openParents[open];
+      r.starts[slot] = openStarts[open];
+      r.ends[slot] = endNanos;
+      r.names[slot] = openNames[open];
+      r.details[slot] = openDetails[open];
+      r.written = n + 1;
+    }
+
+    void clear() {
+      Ring r = ring;
+      if (r != null) {
+        r.cleared = r.written;
+      }
+    }
+
+    /** Adds the ended spans, and returns true if there is any. */
+    boolean collect(List<Span> spans) {
+      Ring r = ring;
+      if (r == null) {
+        return false;
+      }
+      int size = spans.size();
+      long to = r.written;
+      long from = Math.max(r.cleared, to - RING_SIZE);
+      for (long n = from; n < to; n++) {
+        int slot = (int) (n & (RING_SIZE - 1));
+        String name = r.names[slot];
+        if (name != null) {
+          spans.add(new Span(r.ids[slot], r.parents[slot], tid, r.starts[slot], r.ends[slot],
+              name, r.details[slot]));
+        }
+      }
+      return spans.size() > size;
+    }
+  }
+
+  /** The ring buffer of the ended spans of a thread. */
+  private static final class Ring {
+    final long[] ids = new long[RING_SIZE];
+    final long[] parents = new long[RING_SIZE];
+    final long[] starts = new long[RING_SIZE];
+    final long[] ends = new long[RING_SIZE];
+    final String[] names = new String[RING_SIZE];
+    final String[] details = new String[RING_SIZE];
+    /** The number of spans ever ended, published after an entry is written. */
+    volatile long written;
+    /** The spans ended before it are cleared. */
+    volatile long cleared;
+  }
+}